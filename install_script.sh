@@ -4,9 +4,16 @@ mkdir -p ~/.ipython/kernels/simple-kernel-nashorn/
 START_SCRIPT_PATH=$(cd `dirname "${BASH_SOURCE[0]}"` && pwd)/build/libs/simple-kernel-nashorn-all-1.0-SNAPSHOT.jar
 EXTENSIONS_PATH=$(cd `dirname "${BASH_SOURCE[0]}"` && pwd)/src/main/js/extensions.list
 JAVA_PATH=$(which java)
+# --hosted: start kernels in a running KernelHost through the lightweight launcher
+if [ "$1" == "--hosted" ]; then
+    LAUNCH='"-cp", "'${START_SCRIPT_PATH}'", "simplekernel.KernelLauncher"'
+else
+    LAUNCH='"-jar", "'${START_SCRIPT_PATH}'"'
+fi
 CONTENT='{
-   "argv": ["'${JAVA_PATH}'", "'-jar'", "'${START_SCRIPT_PATH}'", "{connection_file}", "'${EXTENSIONS_PATH}'"],
+   "argv": ["'${JAVA_PATH}'", '${LAUNCH}', "{connection_file}", "'${EXTENSIONS_PATH}'"],
                 "display_name": "simple-kernel-nashorn",
-                "language": "simple-kernel-nashorn"
+                "language": "simple-kernel-nashorn",
+                "interrupt_mode": "message"
 }'
 echo $CONTENT > ~/.ipython/kernels/simple-kernel-nashorn/kernel.json
@@ -0,0 +1,61 @@
+package simplekernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Column operations over a million rows: a reduction, a filter and a group-by on dictionary-encoded keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnBenchmark
+{
+    private static final int ROWS = 1000000;
+    private static final String[] KEYS = { "AAA", "BBB", "CCC", "DDD", "EEE" };
+
+    private DoubleColumn values;
+    private StringColumn keys;
+
+    @Setup
+    public void setUp()
+    {
+        values = DoubleColumn.generate(ROWS, i -> (i % 1000) / 10.0);
+        keys = StringColumn.allocate(ROWS);
+        for (int i = 0; i < ROWS; i++)
+        {
+            keys.set(i, KEYS[i % KEYS.length]);
+        }
+    }
+
+    @Benchmark
+    public double sum()
+    {
+        return values.sum();
+    }
+
+    @Benchmark
+    public DoubleColumn filter()
+    {
+        return values.filter(values.where(v -> v < 10));
+    }
+
+    @Benchmark
+    public ColumnTable groupBy()
+    {
+        return ColumnTable.groupBy(keys, values, "key");
+    }
+}
@@ -0,0 +1,114 @@
+package simplekernel;
+
+import ch.qos.logback.classic.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole execute_request against a running kernel over loopback TCP, from sending the request to receiving
+ * the execute_reply, with a cell that prints and returns a value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecuteRequestBenchmark
+{
+    private SimpleKernel kernel;
+    private Thread kernelThread;
+    private ZMQ.Context context;
+    private ZMQ.Socket shell;
+    private ZMQ.Socket iopub;
+    private Signer signer;
+    private String session;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        // The kernel logs every cell, which would dominate the measurement
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        Config config = new Config();
+        config.key = UUID.randomUUID().toString();
+        config.shell_port = freePort();
+        config.iopub_port = freePort();
+        config.control_port = freePort();
+        config.stdin_port = freePort();
+        config.hb_port = freePort();
+        kernel = new SimpleKernel(config);
+        kernelThread = new Thread(() ->
+        {
+            try
+            {
+                kernel.start(null);
+            }
+            catch (Exception ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }, "benchmark-kernel");
+        kernelThread.start();
+
+        signer = Signer.create(config);
+        session = UUID.randomUUID().toString();
+        context = ZMQ.context(1);
+        shell = context.socket(ZMQ.DEALER);
+        shell.connect("tcp://127.0.0.1:" + config.shell_port);
+        iopub = context.socket(ZMQ.SUB);
+        iopub.subscribe(new byte[0]);
+        iopub.connect("tcp://127.0.0.1:" + config.iopub_port);
+    }
+
+    private static int freePort() throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        kernel.stop();
+        kernelThread.join();
+        shell.close();
+        iopub.close();
+        context.term();
+    }
+
+    @Benchmark
+    public Message execute() throws Exception
+    {
+        Message request = new Message(session, "execute_request");
+        request.getContent().put("code", "print('line'); 6 * 7");
+        request.getContent().put("silent", false);
+        request.send(shell, signer);
+        Message reply = Message.recv(signer, shell);
+        // Keep iopub from backing up; the status, stream and result messages are not waited for
+        while (iopub.recv(ZMQ.DONTWAIT) != null)
+        {
+        }
+        return reply;
+    }
+}
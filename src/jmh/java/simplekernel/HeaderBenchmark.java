@@ -0,0 +1,49 @@
+package simplekernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-message cost of a new header: message id, timestamp and serialization.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderBenchmark
+{
+    @Benchmark
+    public Header create()
+    {
+        return new Header("benchmark-session", "stream");
+    }
+
+    @Benchmark
+    public byte[] createAndSerialize() throws Exception
+    {
+        return new Header("benchmark-session", "stream").toBytes();
+    }
+
+    @Benchmark
+    public String isoDateNow()
+    {
+        return Utils.isoDateNow();
+    }
+
+    @Benchmark
+    public String messageId()
+    {
+        return HeaderFactory.nextMessageId();
+    }
+}
@@ -0,0 +1,72 @@
+package simplekernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zeromq.ZMQ;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A shell round trip over inproc sockets: the client signs and sends a request, the kernel side receives and
+ * verifies it and sends a reply back to the client's identity, which the client receives and verifies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark
+{
+    private ZMQ.Context context;
+    private ZMQ.Socket kernel;
+    private ZMQ.Socket client;
+    private Signer signer;
+    private Message request;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        context = ZMQ.context(1);
+        kernel = context.socket(ZMQ.ROUTER);
+        kernel.bind("inproc://message-benchmark");
+        client = context.socket(ZMQ.DEALER);
+        client.connect("inproc://message-benchmark");
+        signer = new Signer("hmac-sha256", UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+        request = new Message(UUID.randomUUID().toString(), "execute_request");
+        request.getContent().put("code", "var x = 1; x + 1");
+        request.getContent().put("silent", false);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        client.close();
+        kernel.close();
+        context.term();
+    }
+
+    @Benchmark
+    public Message roundTrip() throws Exception
+    {
+        request.send(client, signer);
+        Message received = Message.recv(signer, kernel);
+        Message reply = new Message(received, "execute_reply");
+        reply.identities = received.identities;
+        reply.getContent().put("status", "ok");
+        reply.getContent().put("execution_count", 1);
+        reply.send(kernel, signer);
+        return Message.recv(signer, client);
+    }
+}
@@ -0,0 +1,63 @@
+package simplekernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering large cell results into their MIME bundle and serializing the bundle as message content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultRendererBenchmark
+{
+    @Param({ "100", "100000" })
+    public int size;
+
+    private ResultRenderer renderer;
+    private List<Integer> list;
+    private Map<String, Object> map;
+
+    @Setup
+    public void setUp()
+    {
+        renderer = new ResultRenderer(new Settings());
+        list = new ArrayList<>(size);
+        map = new HashMap<>();
+        for (int i = 0; i < size; i++)
+        {
+            list.add(i);
+            map.put("key" + i, "value" + i);
+        }
+    }
+
+    @Benchmark
+    public byte[] list() throws Exception
+    {
+        return Message.toBytes(renderer.render(list));
+    }
+
+    @Benchmark
+    public byte[] map() throws Exception
+    {
+        return Message.toBytes(renderer.render(map));
+    }
+}
@@ -0,0 +1,63 @@
+package simplekernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HMAC signing and verification of the four signed frames, for a small and a large content frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignerBenchmark
+{
+    @Param({ "64", "65536" })
+    public int contentBytes;
+
+    private Signer signer;
+    private byte[] header;
+    private byte[] parent;
+    private byte[] metadata;
+    private byte[] content;
+    private byte[] signature;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        signer = new Signer("hmac-sha256", "benchmark-key".getBytes(StandardCharsets.UTF_8));
+        header = new Header("benchmark-session", "stream").toBytes();
+        parent = new Header("benchmark-session", "execute_request").toBytes();
+        metadata = Message.EMPTY_OBJECT;
+        content = new byte[contentBytes];
+        Arrays.fill(content, (byte) 'x');
+        signature = signer.sign(header, parent, metadata, content);
+    }
+
+    @Benchmark
+    public byte[] sign()
+    {
+        return signer.sign(header, parent, metadata, content);
+    }
+
+    @Benchmark
+    public boolean verify()
+    {
+        return signer.verify(signature, header, parent, metadata, content);
+    }
+}
@@ -0,0 +1,257 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects a cell's output and publishes it as iopub {@code stream} messages, coalescing writes so a loop that
+ * prints line by line sends a handful of messages rather than one per line.
+ *
+ * A message goes out when the buffer reaches the size limit, or once the oldest buffered byte has waited for the
+ * flush interval.  {@link #flush()} is deliberately only a hint, since Java code often flushes after every line;
+ * the kernel calls {@link #drain()} before it publishes a result or reply so ordering is kept.
+ *
+ * Output past the cell's {@link OutputBudget} goes to the budget's spill file rather than to iopub, and the
+ * outbox limits how much stream output may be queued, so a cell that prints faster than it can be sent is made
+ * to wait instead of filling the heap.
+ */
+class CellOutputStream extends OutputStream
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CellOutputStream.class);
+
+    static class StreamContent
+    {
+        public final String name;
+        public final String text;
+
+        StreamContent(String name, String text)
+        {
+            this.name = name;
+            this.text = text;
+        }
+    }
+
+    private final Outbox outbox;
+    private final Message parent;
+    private final String name;
+    private final OutputBudget budget;
+    private final ScheduledExecutorService flusher;
+    private final long flushMillis;
+    private final byte[] buffer;
+    private int count;
+    private boolean scheduled;
+    private int messages;
+
+    CellOutputStream(Outbox outbox, Message parent, String name, OutputBudget budget, Settings settings,
+                     ScheduledExecutorService flusher)
+    {
+        this.outbox = outbox;
+        this.parent = parent;
+        this.name = name;
+        this.budget = budget;
+        this.flusher = flusher;
+        this.flushMillis = settings.streamFlushMillis;
+        this.buffer = new byte[Math.max(16, settings.streamMaxBytes)];
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException
+    {
+        StopGuard.enter();
+        try
+        {
+            if (budget.admit(1) == 0)
+            {
+                overflow(new byte[] { (byte) b }, 0, 1);
+                return;
+            }
+            if (count == buffer.length)
+            {
+                emit();
+            }
+            buffer[count++] = (byte) b;
+            schedule();
+        }
+        finally
+        {
+            StopGuard.exit();
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException
+    {
+        StopGuard.enter();
+        try
+        {
+            int allowed = budget.admit(len);
+            int pos = off;
+            int remaining = allowed;
+            while (remaining > 0)
+            {
+                if (count == buffer.length)
+                {
+                    emit();
+                }
+                int chunk = Math.min(remaining, buffer.length - count);
+                System.arraycopy(b, pos, buffer, count, chunk);
+                count += chunk;
+                pos += chunk;
+                remaining -= chunk;
+            }
+            if (allowed < len)
+            {
+                overflow(b, off + allowed, len - allowed);
+            }
+            schedule();
+        }
+        finally
+        {
+            StopGuard.exit();
+        }
+    }
+
+    private void overflow(byte[] b, int off, int len) throws IOException
+    {
+        if (budget.markTruncated())
+        {
+            drain();
+            send(String.format("%n[Output truncated after %d bytes; the rest of this cell's output is written to %s]%n",
+                    budget.limit(), budget.spillFile().getAbsolutePath()));
+        }
+        budget.spill(b, off, len);
+    }
+
+    private void schedule()
+    {
+        if (!scheduled && count > 0)
+        {
+            scheduled = true;
+            flusher.schedule(this::flushScheduled, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void flushScheduled()
+    {
+        scheduled = false;
+        try
+        {
+            emit();
+        }
+        catch (IOException ex)
+        {
+            LOG.error("Failed to publish " + name, ex);
+        }
+    }
+
+    /**
+     * Publish the buffered output, holding back a trailing partial UTF-8 sequence until the rest of it arrives.
+     */
+    private void emit() throws IOException
+    {
+        int end = count;
+        int lead = count - 1;
+        // Walk back over continuation bytes to the lead byte of the last character
+        while (lead >= 0 && lead > count - 4 && (buffer[lead] & 0xc0) == 0x80)
+        {
+            lead--;
+        }
+        if (lead >= 0 && (buffer[lead] & 0x80) != 0 && count - lead < sequenceLength(buffer[lead]))
+        {
+            end = lead;
+        }
+        if (end == 0)
+        {
+            if (count == buffer.length)
+            {
+                // Not valid UTF-8 anyway; send it rather than stall
+                end = count;
+            }
+            else
+            {
+                return;
+            }
+        }
+        send(new String(buffer, 0, end, StandardCharsets.UTF_8));
+        System.arraycopy(buffer, end, buffer, 0, count - end);
+        count -= end;
+    }
+
+    private static int sequenceLength(byte lead)
+    {
+        if ((lead & 0xe0) == 0xc0)
+        {
+            return 2;
+        }
+        if ((lead & 0xf0) == 0xe0)
+        {
+            return 3;
+        }
+        if ((lead & 0xf8) == 0xf0)
+        {
+            return 4;
+        }
+        return 1;
+    }
+
+    private void send(String text) throws IOException
+    {
+        try
+        {
+            Message stream = new Message(parent, "stream");
+            stream.setContent(new StreamContent(name, text));
+            outbox.sendThrottled(SimpleKernel.IOPUB, stream);
+            messages++;
+        }
+        catch (Exception ex)
+        {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Stream messages published so far.
+     */
+    synchronized int messageCount()
+    {
+        return messages;
+    }
+
+    @Override
+    public void flush()
+    {
+        // Coalesced: the flush interval bounds how long output waits
+    }
+
+    /**
+     * Publish everything buffered so far, including an incomplete trailing character.
+     */
+    synchronized void drain() throws IOException
+    {
+        StopGuard.enter();
+        try
+        {
+            if (count > 0)
+            {
+                send(new String(buffer, 0, count, StandardCharsets.UTF_8));
+                count = 0;
+            }
+        }
+        finally
+        {
+            StopGuard.exit();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        drain();
+    }
+}
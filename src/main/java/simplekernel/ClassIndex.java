@@ -0,0 +1,311 @@
+package simplekernel;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * The names of the classes on the class path and in the JDK, so completion can offer them without walking jars
+ * while the user types.
+ *
+ * The scan runs on a background thread when the runtime starts, and its result is saved under the extension
+ * cache keyed by a hash of the class path, so later starts with the same jars just read one file.  Until it is
+ * ready, lookups find nothing.  Names are held in sorted arrays and searched by binary search, which keeps the
+ * tens of thousands of them compact.
+ */
+class ClassIndex
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ClassIndex.class);
+    private static final String[] EXCLUDED_PACKAGES = { "sun.", "jdk.internal.", "com.sun.proxy." };
+
+    private static final class Names
+    {
+        // Fully qualified names, sorted
+        final String[] qualified;
+        // Simple names, sorted, with the index of the qualified name each belongs to
+        final String[] simple;
+        final int[] owner;
+
+        Names(String[] qualified)
+        {
+            this.qualified = qualified;
+            Integer[] order = new Integer[qualified.length];
+            String[] simpleNames = new String[qualified.length];
+            for (int i = 0; i < qualified.length; i++)
+            {
+                order[i] = i;
+                simpleNames[i] = simpleName(qualified[i]);
+            }
+            Arrays.sort(order, (a, b) -> simpleNames[a].compareTo(simpleNames[b]));
+            simple = new String[order.length];
+            owner = new int[order.length];
+            for (int i = 0; i < order.length; i++)
+            {
+                simple[i] = simpleNames[order[i]];
+                owner[i] = order[i];
+            }
+        }
+    }
+
+    private final File cacheDir;
+    private volatile Names names = new Names(new String[0]);
+
+    ClassIndex(Settings settings)
+    {
+        cacheDir = new File(settings.extensionCacheDir, "classes");
+    }
+
+    /**
+     * Build the index on a daemon thread.
+     */
+    void start()
+    {
+        Thread thread = OutputRouter.unroutedThread(this::load, "kernel-class-index");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    boolean isClass(String qualifiedName)
+    {
+        return Arrays.binarySearch(names.qualified, qualifiedName) >= 0;
+    }
+
+    /**
+     * Fully qualified names of classes whose simple name starts with the prefix.
+     */
+    List<String> findBySimpleName(String prefix, int limit)
+    {
+        Names current = names;
+        List<String> matches = new ArrayList<>();
+        for (int i = lowerBound(current.simple, prefix); i < current.simple.length && matches.size() < limit
+                && current.simple[i].startsWith(prefix); i++)
+        {
+            matches.add(current.qualified[current.owner[i]]);
+        }
+        return matches;
+    }
+
+    /**
+     * Fully qualified names starting with the prefix.  Nested classes are only offered once a '$' has been typed.
+     */
+    List<String> findByQualifiedName(String prefix, int limit)
+    {
+        Names current = names;
+        boolean nested = prefix.indexOf('$') >= 0;
+        List<String> matches = new ArrayList<>();
+        for (int i = lowerBound(current.qualified, prefix); i < current.qualified.length && matches.size() < limit
+                && current.qualified[i].startsWith(prefix); i++)
+        {
+            if (nested || current.qualified[i].indexOf('$') < 0)
+            {
+                matches.add(current.qualified[i]);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Classes and subpackages directly inside a package ("" for the root) whose name starts with the prefix.
+     * Nested classes are left to the members of their outer class.
+     */
+    List<String> members(String packageName, String prefix, int limit)
+    {
+        Names current = names;
+        String start = packageName.isEmpty() ? prefix : packageName + "." + prefix;
+        int from = start.length() - prefix.length();
+        Set<String> matches = new TreeSet<>();
+        for (int i = lowerBound(current.qualified, start); i < current.qualified.length
+                && current.qualified[i].startsWith(start); i++)
+        {
+            String name = current.qualified[i];
+            int dot = name.indexOf('.', from);
+            if (dot >= 0 || name.indexOf('$', from) < 0)
+            {
+                matches.add(dot < 0 ? name.substring(from) : name.substring(from, dot));
+            }
+        }
+        List<String> list = new ArrayList<>(matches);
+        return list.size() <= limit ? list : list.subList(0, limit);
+    }
+
+    private static int lowerBound(String[] sorted, String key)
+    {
+        int i = Arrays.binarySearch(sorted, key);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    private static String simpleName(String qualifiedName)
+    {
+        return qualifiedName.substring(Math.max(qualifiedName.lastIndexOf('.'), qualifiedName.lastIndexOf('$')) + 1);
+    }
+
+    private void load()
+    {
+        long started = System.currentTimeMillis();
+        List<File> classPath = classPath();
+        File cache = new File(cacheDir, cacheKey(classPath) + ".txt");
+        try
+        {
+            String[] qualified;
+            if (cache.isFile())
+            {
+                qualified = FileUtils.readLines(cache, StandardCharsets.UTF_8).toArray(new String[0]);
+                LOG.info("Read " + qualified.length + " class names from " + cache);
+            }
+            else
+            {
+                qualified = scan(classPath);
+                ExtensionLoader.writeAtomically(cache, String.join("\n", qualified).getBytes(StandardCharsets.UTF_8));
+                LOG.info("Indexed " + qualified.length + " classes in " + (System.currentTimeMillis() - started)
+                        + "ms");
+            }
+            names = new Names(qualified);
+        }
+        catch (Exception ex)
+        {
+            LOG.warn("Failed to index the class path, class names will not be completed", ex);
+        }
+    }
+
+    private static List<File> classPath()
+    {
+        List<File> entries = new ArrayList<>();
+        for (String property : new String[] { "sun.boot.class.path", "java.class.path" })
+        {
+            String value = System.getProperty(property);
+            if (value != null)
+            {
+                for (String entry : value.split(File.pathSeparator))
+                {
+                    if (!entry.isEmpty())
+                    {
+                        entries.add(new File(entry).getAbsoluteFile());
+                    }
+                }
+            }
+        }
+        String extDirs = System.getProperty("java.ext.dirs");
+        if (extDirs != null)
+        {
+            for (String dir : extDirs.split(File.pathSeparator))
+            {
+                File[] jars = new File(dir).listFiles((d, name) -> name.endsWith(".jar"));
+                if (jars != null)
+                {
+                    Arrays.sort(jars);
+                    entries.addAll(Arrays.asList(jars));
+                }
+            }
+        }
+        return entries;
+    }
+
+    // Changes whenever a jar is added, removed or rebuilt, or the JDK is changed
+    private static String cacheKey(List<File> classPath)
+    {
+        StringBuilder key = new StringBuilder(System.getProperty("java.home")).append('\n')
+                .append(System.getProperty("java.version")).append('\n');
+        for (File entry : classPath)
+        {
+            key.append(entry).append(' ').append(entry.length()).append(' ').append(entry.lastModified()).append('\n');
+        }
+        return ExtensionLoader.sha256(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] scan(List<File> classPath) throws IOException
+    {
+        Set<String> names = new LinkedHashSet<>();
+        for (File entry : classPath)
+        {
+            if (entry.isDirectory())
+            {
+                try (Stream<Path> files = Files.walk(entry.toPath()))
+                {
+                    Path root = entry.toPath();
+                    files.forEach(file -> add(names, root.relativize(file).toString().replace(File.separatorChar, '/')));
+                }
+            }
+            else if (entry.isFile())
+            {
+                try (JarFile jar = new JarFile(entry))
+                {
+                    for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); )
+                    {
+                        add(names, e.nextElement().getName());
+                    }
+                }
+            }
+        }
+        scanModules(names);
+        String[] sorted = names.toArray(new String[0]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    // Since Java 9 the JDK's classes are in the jrt file system rather than on the boot class path
+    private static void scanModules(Set<String> names) throws IOException
+    {
+        FileSystem jrt;
+        try
+        {
+            jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        }
+        catch (Exception ex)
+        {
+            return;
+        }
+        try (Stream<Path> modules = Files.list(jrt.getPath("/modules")))
+        {
+            for (Path module : (Iterable<Path>) modules::iterator)
+            {
+                try (Stream<Path> files = Files.walk(module))
+                {
+                    files.forEach(file -> add(names, module.relativize(file).toString()));
+                }
+            }
+        }
+    }
+
+    private static void add(Set<String> names, String path)
+    {
+        if (!path.endsWith(".class") || path.startsWith("META-INF/") || path.endsWith("-info.class"))
+        {
+            return;
+        }
+        String name = path.substring(0, path.length() - ".class".length()).replace('/', '.');
+        // Anonymous and local classes cannot be named from a script
+        int nested = name.lastIndexOf('$');
+        if (nested >= 0 && (nested == name.length() - 1 || Character.isDigit(name.charAt(nested + 1))))
+        {
+            return;
+        }
+        for (String excluded : EXCLUDED_PACKAGES)
+        {
+            if (name.startsWith(excluded))
+            {
+                return;
+            }
+        }
+        names.add(name);
+    }
+}
@@ -0,0 +1,178 @@
+package simplekernel;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * A column of primitive values stored outside the Java heap, for the {@code columns} extension.
+ *
+ * Values live in a direct buffer or a memory-mapped file, little-endian like typed arrays, so tens of millions of
+ * rows cost their raw size rather than a boxed double and a script property each, and operations run as plain
+ * loops in Java.  A column is limited to what one buffer can address, 2 GiB.
+ *
+ * Columns render themselves compactly: their type, length and first few values, both as text and as JSON.
+ */
+public abstract class Column implements JsonSerializable
+{
+    // Values shown when a column or table is rendered
+    static final int PREVIEW = 10;
+
+    final ByteBuffer data;
+    final int length;
+
+    Column(ByteBuffer data, int length)
+    {
+        this.data = data;
+        this.length = length;
+    }
+
+    static ByteBuffer allocate(int count, int width)
+    {
+        return ByteBuffer.allocateDirect(size(count, width)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Map a file of fixed-width values, creating or growing it to hold {@code count} of them; a negative count
+     * maps the file as it is.
+     */
+    static ByteBuffer map(String path, int count, int width) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw"))
+        {
+            long bytes = count < 0 ? file.length() / width * width : (long) size(count, width);
+            if (bytes > Integer.MAX_VALUE)
+            {
+                throw new IllegalArgumentException(path + " holds more values than one column can address");
+            }
+            // The mapping stays valid after the channel is closed
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static int size(int count, int width)
+    {
+        long bytes = (long) count * width;
+        if (count < 0 || bytes > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("A column holds at most " + Integer.MAX_VALUE / width + " values");
+        }
+        return (int) bytes;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    public abstract String getType();
+
+    /**
+     * The values as a little-endian buffer sharing the column's memory, e.g. to send as a comm buffer.
+     */
+    public ByteBuffer getBuffer()
+    {
+        return data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public boolean isMapped()
+    {
+        return data instanceof MappedByteBuffer;
+    }
+
+    /**
+     * Write changes to a mapped column back to its file.
+     */
+    public void flush()
+    {
+        if (data instanceof MappedByteBuffer)
+        {
+            ((MappedByteBuffer) data).force();
+        }
+    }
+
+    /**
+     * A new column with only the rows set in {@code rows}.
+     */
+    public abstract Column filter(BitSet rows);
+
+    // Rows past the end of the column are ignored
+    static int count(BitSet rows, int length)
+    {
+        return rows.length() <= length ? rows.cardinality() : rows.get(0, length).cardinality();
+    }
+
+    abstract String format(int row);
+
+    abstract void writeValue(JsonGenerator gen, int row) throws IOException;
+
+    // Script numbers are doubles; keep whole ones looking like integers, as results do
+    private static boolean isWhole(double value)
+    {
+        return value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15;
+    }
+
+    static String formatDouble(double value)
+    {
+        return isWhole(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    static void writeDouble(JsonGenerator gen, double value) throws IOException
+    {
+        if (isWhole(value))
+        {
+            gen.writeNumber((long) value);
+        }
+        else
+        {
+            gen.writeNumber(value);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder(getClass().getSimpleName()).append('(').append(length).append(")[");
+        int shown = Math.min(PREVIEW, length);
+        for (int i = 0; i < shown; i++)
+        {
+            text.append(i > 0 ? ", " : "").append(format(i));
+        }
+        if (shown < length)
+        {
+            text.append(", ").append(ResultRenderer.ELLIPSIS).append(' ').append(length - shown).append(" more");
+        }
+        return text.append(']').toString();
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException
+    {
+        gen.writeStartObject();
+        gen.writeStringField("type", getType());
+        gen.writeNumberField("length", length);
+        gen.writeArrayFieldStart("values");
+        for (int i = 0; i < Math.min(PREVIEW, length); i++)
+        {
+            writeValue(gen, i);
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer)
+            throws IOException
+    {
+        serialize(gen, provider);
+    }
+}
@@ -0,0 +1,287 @@
+package simplekernel;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named columns of equal length, for the {@code columns} extension.  Rendered as an aligned text table, or JSON
+ * rows, of the first few rows.
+ */
+public class ColumnTable implements JsonSerializable
+{
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+    private int length = -1;
+
+    public ColumnTable add(String name, Column column)
+    {
+        if (length >= 0 && column.length != length)
+        {
+            throw new IllegalArgumentException("Column " + name + " has " + column.length + " rows, the table "
+                    + length);
+        }
+        length = column.length;
+        columns.put(name, column);
+        return this;
+    }
+
+    public Column get(String name)
+    {
+        Column column = columns.get(name);
+        if (column == null)
+        {
+            throw new IllegalArgumentException("No column " + name + " in " + columns.keySet());
+        }
+        return column;
+    }
+
+    public List<String> getNames()
+    {
+        return new ArrayList<>(columns.keySet());
+    }
+
+    public int getLength()
+    {
+        return Math.max(0, length);
+    }
+
+    /**
+     * A new table with only the rows set in {@code rows}.
+     */
+    public ColumnTable filter(BitSet rows)
+    {
+        ColumnTable result = new ColumnTable();
+        for (Map.Entry<String, Column> column : columns.entrySet())
+        {
+            result.add(column.getKey(), column.getValue().filter(rows));
+        }
+        return result;
+    }
+
+    public ColumnTable groupBy(String key, String value)
+    {
+        Column values = get(value);
+        if (!(values instanceof NumericColumn))
+        {
+            throw new IllegalArgumentException("Column " + value + " is not numeric");
+        }
+        return groupBy(get(key), (NumericColumn) values, key);
+    }
+
+    /**
+     * Count, sum, mean, min and max of the values for each distinct key, one row per key in order of first
+     * appearance.  Done in one pass with a primitive hash table, so no boxed key or value is made per row.
+     */
+    public static ColumnTable groupBy(Column keys, NumericColumn values, String keyName)
+    {
+        if (keys.length != values.length)
+        {
+            throw new IllegalArgumentException("Keys have " + keys.length + " rows, values " + values.length);
+        }
+        GroupMap groups = new GroupMap();
+        BitSet firstRows = new BitSet(keys.length);
+        long[] count = new long[16];
+        double[] sum = new double[16];
+        double[] min = new double[16];
+        double[] max = new double[16];
+        for (int i = 0; i < keys.length; i++)
+        {
+            int group = groups.group(groupKey(keys, i));
+            double value = values.getDouble(i);
+            if (group == count.length)
+            {
+                count = Arrays.copyOf(count, group * 2);
+                sum = Arrays.copyOf(sum, group * 2);
+                min = Arrays.copyOf(min, group * 2);
+                max = Arrays.copyOf(max, group * 2);
+            }
+            if (count[group] == 0)
+            {
+                firstRows.set(i);
+                min[group] = value;
+                max[group] = value;
+            }
+            count[group]++;
+            sum[group] += value;
+            min[group] = Math.min(min[group], value);
+            max[group] = Math.max(max[group], value);
+        }
+        int size = groups.size;
+        double[] mean = new double[size];
+        for (int g = 0; g < size; g++)
+        {
+            mean[g] = sum[g] / count[g];
+        }
+        // Groups are numbered in order of first appearance, which is the order filter keeps
+        return new ColumnTable()
+                .add(keyName, keys.filter(firstRows))
+                .add("count", LongColumn.of(Arrays.copyOf(count, size)))
+                .add("sum", DoubleColumn.of(Arrays.copyOf(sum, size)))
+                .add("mean", DoubleColumn.of(mean))
+                .add("min", DoubleColumn.of(Arrays.copyOf(min, size)))
+                .add("max", DoubleColumn.of(Arrays.copyOf(max, size)));
+    }
+
+    private static long groupKey(Column keys, int row)
+    {
+        if (keys instanceof StringColumn)
+        {
+            return ((StringColumn) keys).getCode(row);
+        }
+        if (keys instanceof IntColumn)
+        {
+            return ((IntColumn) keys).get(row);
+        }
+        if (keys instanceof LongColumn)
+        {
+            return ((LongColumn) keys).get(row);
+        }
+        return Double.doubleToLongBits(((NumericColumn) keys).getDouble(row));
+    }
+
+    /**
+     * Open-addressing map from long keys to group numbers handed out in order.
+     */
+    private static final class GroupMap
+    {
+        long[] keys = new long[64];
+        int[] groups = new int[64];
+        int size;
+
+        GroupMap()
+        {
+            Arrays.fill(groups, -1);
+        }
+
+        int group(long key)
+        {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (groups[slot] >= 0)
+            {
+                if (keys[slot] == key)
+                {
+                    return groups[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            groups[slot] = size;
+            if (++size * 2 > keys.length)
+            {
+                grow();
+            }
+            return size - 1;
+        }
+
+        private static int hash(long key)
+        {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            int[] oldGroups = groups;
+            keys = new long[oldKeys.length * 2];
+            groups = new int[oldKeys.length * 2];
+            Arrays.fill(groups, -1);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldGroups[i] >= 0)
+                {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (groups[slot] >= 0)
+                    {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    groups[slot] = oldGroups[i];
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        List<Column> list = new ArrayList<>(columns.values());
+        int rows = Math.min(Column.PREVIEW, getLength());
+        String[][] cells = new String[rows + 1][list.size()];
+        int[] widths = new int[list.size()];
+        List<String> names = getNames();
+        for (int c = 0; c < list.size(); c++)
+        {
+            cells[0][c] = names.get(c);
+            for (int r = 0; r < rows; r++)
+            {
+                cells[r + 1][c] = list.get(c).format(r);
+            }
+            for (String[] row : cells)
+            {
+                widths[c] = Math.max(widths[c], row[c].length());
+            }
+        }
+        StringBuilder text = new StringBuilder("ColumnTable(").append(getLength()).append(" rows)");
+        for (String[] row : cells)
+        {
+            text.append('\n');
+            for (int c = 0; c < row.length; c++)
+            {
+                text.append(row[c]);
+                for (int pad = row[c].length(); c < row.length - 1 && pad < widths[c] + 2; pad++)
+                {
+                    text.append(' ');
+                }
+            }
+        }
+        if (rows < getLength())
+        {
+            text.append('\n').append(ResultRenderer.ELLIPSIS).append(' ').append(getLength() - rows).append(" more rows");
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException
+    {
+        gen.writeStartObject();
+        gen.writeNumberField("length", getLength());
+        gen.writeObjectFieldStart("columns");
+        for (Map.Entry<String, Column> column : columns.entrySet())
+        {
+            gen.writeStringField(column.getKey(), column.getValue().getType());
+        }
+        gen.writeEndObject();
+        gen.writeArrayFieldStart("rows");
+        for (int r = 0; r < Math.min(Column.PREVIEW, getLength()); r++)
+        {
+            gen.writeStartArray();
+            for (Column column : columns.values())
+            {
+                column.writeValue(gen, r);
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer)
+            throws IOException
+    {
+        serialize(gen, provider);
+    }
+}
@@ -0,0 +1,201 @@
+package simplekernel;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The kernel's end of a Jupyter comm, as scripts see it through {@code utils.comm}.  Data is passed as JSON text
+ * so it is serialized once, by the script, and goes into the message verbatim.
+ *
+ * {@link #send} does not publish straight away: the comm keeps only the latest data and the {@link CommManager}
+ * publishes it on its next tick, so a loop updating a chart thousands of times a second sends a steady few dozen
+ * messages instead.  A close goes out on the same tick, after any data still pending.
+ */
+public class Comm
+{
+    public interface Handler
+    {
+        /**
+         * @param content the whole message content as JSON, with {@code comm_id} and {@code data}
+         */
+        void handle(String content, List<ByteBuffer> buffers) throws Exception;
+    }
+
+    private final CommManager manager;
+    final Session session;
+    private final String id;
+    private final String targetName;
+    private final String idJson;
+    private volatile Handler onMessage;
+    private volatile Handler onClose;
+
+    // Guarded by this
+    private String pendingData;
+    private List<ByteBuffer> pendingBuffers;
+    private Message pendingParent;
+    private String closeData;
+    private boolean closed;
+    private boolean queued;
+
+    Comm(CommManager manager, Session session, String id, String targetName)
+    {
+        this.manager = manager;
+        this.session = session;
+        this.id = id;
+        this.targetName = targetName;
+        this.idJson = CommManager.json(id);
+    }
+
+    public String getCommId()
+    {
+        return id;
+    }
+
+    public String getTargetName()
+    {
+        return targetName;
+    }
+
+    public void onMsg(Handler handler)
+    {
+        onMessage = handler;
+    }
+
+    public void onClose(Handler handler)
+    {
+        onClose = handler;
+    }
+
+    /**
+     * Replace the data waiting to be published; only the latest is sent on the next tick.  Ignored once closed.
+     */
+    public void send(String data, List<ByteBuffer> buffers)
+    {
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+            pendingData = data == null ? "{}" : data;
+            pendingBuffers = buffers == null ? Collections.emptyList() : buffers;
+            pendingParent = session.request;
+            if (queued)
+            {
+                return;
+            }
+            queued = true;
+        }
+        manager.queue(this);
+    }
+
+    /**
+     * Close the comm, publishing any data still pending first.
+     */
+    public void close(String data)
+    {
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            closeData = data == null ? "{}" : data;
+            if (pendingParent == null)
+            {
+                pendingParent = session.request;
+            }
+            manager.unregister(this);
+            if (queued)
+            {
+                return;
+            }
+            queued = true;
+        }
+        manager.queue(this);
+    }
+
+    /**
+     * Take what is waiting to be published, in order; called by the manager on its tick.
+     */
+    synchronized void drain(List<Message> batch)
+    {
+        queued = false;
+        if (pendingData != null)
+        {
+            Message message = message("comm_msg", pendingParent, pendingData);
+            message.buffers = pendingBuffers;
+            batch.add(message);
+            pendingData = null;
+            pendingBuffers = null;
+        }
+        if (closeData != null)
+        {
+            batch.add(message("comm_close", pendingParent, closeData));
+            closeData = null;
+        }
+        pendingParent = null;
+    }
+
+    /**
+     * The comm_open announcing a comm the kernel started.
+     */
+    Message openMessage(String data, String metadata)
+    {
+        Message message = create("comm_open", session.request);
+        message.setContent(("{\"comm_id\":" + idJson + ",\"target_name\":" + CommManager.json(targetName)
+                + ",\"data\":" + (data == null ? "{}" : data) + "}").getBytes(StandardCharsets.UTF_8));
+        if (metadata != null)
+        {
+            message.metaBytes = metadata.getBytes(StandardCharsets.UTF_8);
+        }
+        return message;
+    }
+
+    private Message message(String type, Message parent, String data)
+    {
+        Message message = create(type, parent);
+        message.setContent(("{\"comm_id\":" + idJson + ",\"data\":" + data + "}").getBytes(StandardCharsets.UTF_8));
+        return message;
+    }
+
+    // Parented on the request whose code sent it, so the frontend can tell which cell it came from
+    private Message create(String type, Message parent)
+    {
+        return parent != null ? new Message(parent, type) : new Message(session.id, type);
+    }
+
+    /**
+     * A comm_msg from the frontend; called on the session's execution thread.
+     */
+    void received(Message msg) throws Exception
+    {
+        Handler handler = onMessage;
+        if (handler != null)
+        {
+            handler.handle(CommManager.contentJson(msg), msg.buffers);
+        }
+    }
+
+    /**
+     * The frontend closed the comm; nothing more is sent on it.  Called on the session's execution thread.
+     */
+    void closedByFrontend(Message msg) throws Exception
+    {
+        synchronized (this)
+        {
+            closed = true;
+            pendingData = null;
+            pendingBuffers = null;
+            closeData = null;
+        }
+        Handler handler = onClose;
+        if (handler != null)
+        {
+            handler.handle(CommManager.contentJson(msg), msg.buffers);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The comms open in a kernel, across all its sessions, and the rate limit on what they publish.
+ *
+ * Comms with data waiting are queued here, and a tick publishes the latest data of each as one batch on iopub.
+ * A tick runs at most once per flush interval: the first update after a quiet spell goes out at once, and those
+ * that follow wait for the next tick, so a comm never publishes faster than the interval allows however often its
+ * code sends.  The kernel also flushes when a request finishes, so a cell's last update is not left waiting.
+ *
+ * Messages from the frontend run on the owning session's execution thread, like cells, since they call into its
+ * script globals.
+ */
+class CommManager
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CommManager.class);
+
+    private final Outbox outbox;
+    private final ScheduledExecutorService flusher;
+    private final long flushMillis;
+    private final Map<String, Comm> comms = new ConcurrentHashMap<>();
+    private final Queue<Comm> queued = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long lastFlush;
+
+    CommManager(Outbox outbox, ScheduledExecutorService flusher, Settings settings)
+    {
+        this.outbox = outbox;
+        this.flusher = flusher;
+        this.flushMillis = Math.max(1, settings.commFlushMillis);
+    }
+
+    void register(Comm comm)
+    {
+        comms.put(comm.getCommId(), comm);
+    }
+
+    void unregister(Comm comm)
+    {
+        comms.remove(comm.getCommId(), comm);
+    }
+
+    /**
+     * Forget the comms a session opened or accepted, once the session is gone.
+     */
+    void unregisterAll(Session session)
+    {
+        comms.values().removeIf(comm -> comm.session == session);
+    }
+
+    /**
+     * The session whose code handles messages for a comm, or null if no such comm is open.
+     */
+    Session owner(String commId)
+    {
+        Comm comm = commId == null ? null : comms.get(commId);
+        return comm == null ? null : comm.session;
+    }
+
+    void send(Message message) throws Exception
+    {
+        outbox.send(SimpleKernel.IOPUB, message);
+    }
+
+    /**
+     * Publish a comm's pending data on the next tick.
+     */
+    void queue(Comm comm)
+    {
+        queued.add(comm);
+        if (scheduled.compareAndSet(false, true))
+        {
+            long wait = lastFlush + flushMillis - System.currentTimeMillis();
+            try
+            {
+                flusher.schedule(this::flushScheduled, Math.max(0, wait), TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException ex)
+            {
+                LOG.debug("Kernel is shutting down, comm updates are not published");
+            }
+        }
+    }
+
+    private void flushScheduled()
+    {
+        scheduled.set(false);
+        flush();
+    }
+
+    /**
+     * Publish everything pending now.  Serialized so two flushes cannot reorder one comm's messages.
+     */
+    synchronized void flush()
+    {
+        lastFlush = System.currentTimeMillis();
+        List<Message> batch = new ArrayList<>();
+        Comm comm;
+        while ((comm = queued.poll()) != null)
+        {
+            comm.drain(batch);
+        }
+        if (batch.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            outbox.sendAll(SimpleKernel.IOPUB, batch);
+        }
+        catch (Exception ex)
+        {
+            LOG.error("Failed to publish " + batch.size() + " comm messages", ex);
+        }
+    }
+
+    /**
+     * Handle a comm_open, comm_msg or comm_close from the frontend on the session's execution thread.
+     */
+    void dispatch(Session session, Message msg) throws Exception
+    {
+        String commId = (String) msg.getContent().get("comm_id");
+        switch (msg.header.msg_type)
+        {
+            case "comm_open":
+                String targetName = (String) msg.getContent().get("target_name");
+                SessionComms.Target target = session.comms.target(targetName);
+                if (target == null)
+                {
+                    reject(msg);
+                    return;
+                }
+                Comm comm = new Comm(this, session, commId, targetName);
+                register(comm);
+                try
+                {
+                    target.open(comm, contentJson(msg), msg.buffers);
+                }
+                catch (Exception ex)
+                {
+                    comm.close(null);
+                    throw ex;
+                }
+                break;
+            case "comm_msg":
+                Comm receiver = comms.get(commId);
+                if (receiver == null)
+                {
+                    LOG.warn("comm_msg for unknown comm " + commId);
+                    return;
+                }
+                receiver.received(msg);
+                break;
+            case "comm_close":
+                Comm closed = comms.remove(commId);
+                if (closed != null)
+                {
+                    closed.closedByFrontend(msg);
+                }
+                break;
+            default:
+                LOG.warn("unknown comm msg_type " + msg.header.msg_type);
+        }
+    }
+
+    /**
+     * Close a comm the frontend opened to a target nothing has registered, as ipykernel does.
+     */
+    void reject(Message msg) throws Exception
+    {
+        Object commId = msg.getContent().get("comm_id");
+        LOG.warn("No comm target " + msg.getContent().get("target_name") + " registered, closing comm " + commId);
+        Message close = new Message(msg, "comm_close");
+        close.getContent().put("comm_id", commId);
+        close.getContent().put("data", new HashMap<>());
+        send(close);
+    }
+
+    /**
+     * comm_info_reply content: the open comms, optionally only those for one target.
+     */
+    Map<String, Object> info(String targetName)
+    {
+        Map<String, Object> open = new HashMap<>();
+        for (Comm comm : comms.values())
+        {
+            if (targetName == null || targetName.equals(comm.getTargetName()))
+            {
+                open.put(comm.getCommId(), Collections.singletonMap("target_name", comm.getTargetName()));
+            }
+        }
+        Map<String, Object> content = new HashMap<>();
+        content.put("status", "ok");
+        content.put("comms", open);
+        return content;
+    }
+
+    static String contentJson(Message msg) throws IOException
+    {
+        byte[] content = msg.contentBytes != null ? msg.contentBytes : Message.toBytes(msg.getContent());
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    static String json(String value)
+    {
+        try
+        {
+            return Message.OBJECT_MAPPER.writeValueAsString(value);
+        }
+        catch (IOException ex)
+        {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+}
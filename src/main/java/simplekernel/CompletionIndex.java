@@ -0,0 +1,613 @@
+package simplekernel;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+import javax.script.Bindings;
+import java.beans.Introspector;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * What a session's code can refer to, for complete_request and inspect_request: the session's globals, the
+ * properties of script objects held in them, the members of Java classes and objects, and, from the
+ * {@link ClassIndex}, Java packages and class names, including the class name inside {@code Java.type("...")}.
+ *
+ * The index is updated on the execution thread after each cell, and only for globals that now hold a different
+ * object or a value of a different class; nothing is enumerated to tell.  The properties of a script object are
+ * listed when they are completed, one level deep and from the object as it is then, which only reads it, so a
+ * completion is still answered on the poll thread while a cell is running.  Java members are followed through
+ * their types as far as needed.
+ */
+class CompletionIndex
+{
+    private static final int MAX_TEXT = 4096;
+    private static final Set<String> STATIC_CLASS_TYPES = new HashSet<>(Arrays.asList(
+            "jdk.internal.dynalink.beans.StaticClass", "jdk.dynalink.beans.StaticClass"));
+    private static final ConcurrentMap<Class<?>, PrefixIndex<Symbol>> INSTANCE_MEMBERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, PrefixIndex<Symbol>> STATIC_MEMBERS = new ConcurrentHashMap<>();
+    private static final String JAVA_TYPE = "Java.type";
+
+    /**
+     * An indexed name.  Immutable, so it can be handed to the poll thread.
+     */
+    static final class Symbol
+    {
+        final String kind;
+        final String text;
+        final String detail;
+        private final PrefixIndex<Symbol> members;
+        // For a script object, whose properties are listed when asked for
+        private final ScriptObjectMirror object;
+        private final Class<?> javaType;
+        private final boolean statics;
+        // For a Java package, whose members come from the class index; "" for the root package
+        private final String packageName;
+
+        Symbol(String kind, String text, String detail, PrefixIndex<Symbol> members)
+        {
+            this(kind, text, detail, members, null, null, false, null);
+        }
+
+        Symbol(String kind, String text, String detail, Class<?> javaType, boolean statics)
+        {
+            this(kind, text, detail, null, null, javaType, statics, null);
+        }
+
+        private Symbol(String kind, String text, String detail, PrefixIndex<Symbol> members,
+                ScriptObjectMirror object, Class<?> javaType, boolean statics, String packageName)
+        {
+            this.kind = kind;
+            this.text = text;
+            this.detail = detail;
+            this.members = members;
+            this.object = object;
+            this.javaType = javaType;
+            this.statics = statics;
+            this.packageName = packageName;
+        }
+
+        static Symbol forPackage(String name)
+        {
+            return new Symbol("package", name.isEmpty() ? "Packages" : name, null, null, null, null, false, name);
+        }
+
+        static Symbol forScriptObject(String kind, String text, String detail, ScriptObjectMirror object)
+        {
+            return new Symbol(kind, text, detail, null, object, null, false, null);
+        }
+
+        PrefixIndex<Symbol> members()
+        {
+            if (members != null)
+            {
+                return members;
+            }
+            if (object != null)
+            {
+                return scriptMembers(object);
+            }
+            return javaType == null ? null : javaMembers(javaType, statics);
+        }
+    }
+
+    // Stands for the globals as the owner of a name that has no dotted path before it
+    private static final Symbol GLOBAL_SCOPE = new Symbol("global", "", null, null);
+
+    private final int maxMatches;
+    private final ClassIndex classes;
+    // Guarded by this; symbols are replaced, never changed
+    private final PrefixIndex<Symbol> globals = new PrefixIndex<>();
+    // Only used by refresh, which runs on the session's execution thread
+    private final Map<String, Object> fingerprints = new HashMap<>();
+
+    CompletionIndex(int maxMatches, ClassIndex classes)
+    {
+        this.maxMatches = maxMatches;
+        this.classes = classes;
+    }
+
+    /**
+     * Bring the index up to date with the globals, re-describing only the ones added or changed since the last
+     * refresh.  Must be called from the thread that executes the session's cells.
+     */
+    void refresh(Bindings bindings)
+    {
+        String[] names = bindings instanceof ScriptObjectMirror ? ((ScriptObjectMirror) bindings).getOwnKeys(true)
+                : bindings.keySet().toArray(new String[0]);
+        Map<String, Symbol> changed = new HashMap<>();
+        Set<String> present = new HashSet<>(Arrays.asList(names));
+        for (String name : names)
+        {
+            Object value = bindings.get(name);
+            Object fingerprint = fingerprint(value);
+            if (!fingerprints.containsKey(name) || !Objects.equals(fingerprints.get(name), fingerprint))
+            {
+                fingerprints.put(name, fingerprint);
+                changed.put(name, describe(value));
+            }
+        }
+        fingerprints.keySet().removeIf(name ->
+        {
+            if (present.contains(name))
+            {
+                return false;
+            }
+            changed.put(name, null);
+            return true;
+        });
+        if (changed.isEmpty())
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            for (Map.Entry<String, Symbol> entry : changed.entrySet())
+            {
+                if (entry.getValue() == null)
+                {
+                    globals.remove(entry.getKey());
+                }
+                else
+                {
+                    globals.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * The content of a complete_reply.  Cursor positions are in code points, as the protocol counts them.
+     */
+    Map<String, Object> complete(String code, int cursorPos)
+    {
+        String text = code == null ? "" : code;
+        int end = offset(text, cursorPos);
+        List<String> matches;
+        int start = javaTypeArgument(text, end);
+        if (start >= 0)
+        {
+            // A partial simple name finds the classes it could be; anything with a dot completes the full name
+            String typed = text.substring(start, end);
+            matches = typed.indexOf('.') < 0 ? classes.findBySimpleName(typed, maxMatches)
+                    : classes.findByQualifiedName(typed, maxMatches);
+        }
+        else
+        {
+            start = identifierStart(text, end);
+            Symbol owner = owner(text, start);
+            matches = owner == null ? new ArrayList<>() : complete(owner, text.substring(start, end));
+        }
+        Map<String, Object> content = new LinkedHashMap<>();
+        content.put("status", "ok");
+        content.put("matches", matches);
+        content.put("cursor_start", text.codePointCount(0, start));
+        content.put("cursor_end", text.codePointCount(0, end));
+        content.put("metadata", new HashMap<>());
+        return content;
+    }
+
+    /**
+     * The content of an inspect_reply for the name under the cursor.
+     */
+    Map<String, Object> inspect(String code, int cursorPos, int detailLevel)
+    {
+        String text = code == null ? "" : code;
+        int at = offset(text, cursorPos);
+        int end = at;
+        while (end < text.length() && Character.isJavaIdentifierPart(text.charAt(end)))
+        {
+            end++;
+        }
+        int start = identifierStart(text, at);
+        Symbol owner = owner(text, start);
+        Symbol symbol = owner == null || start == end ? null : member(owner, text.substring(start, end));
+        Map<String, Object> content = new LinkedHashMap<>();
+        content.put("status", "ok");
+        content.put("found", symbol != null);
+        Map<String, Object> data = new HashMap<>();
+        if (symbol != null)
+        {
+            String description = detailLevel > 0 && symbol.detail != null ? symbol.detail : symbol.text;
+            data.put("text/plain", text.substring(pathStart(text, start), end) + " (" + symbol.kind + ")\n"
+                    + description);
+        }
+        content.put("data", data);
+        content.put("metadata", new HashMap<>());
+        return content;
+    }
+
+    private static int offset(String text, int codePoints)
+    {
+        int count = text.codePointCount(0, text.length());
+        return text.offsetByCodePoints(0, Math.max(0, Math.min(codePoints, count)));
+    }
+
+    private static int identifierStart(String text, int end)
+    {
+        int start = end;
+        while (start > 0 && Character.isJavaIdentifierPart(text.charAt(start - 1)))
+        {
+            start--;
+        }
+        return start;
+    }
+
+    // Start of the whole a.b.c path ending with the identifier at start
+    private static int pathStart(String text, int start)
+    {
+        while (start > 0 && text.charAt(start - 1) == '.')
+        {
+            int previous = identifierStart(text, start - 1);
+            if (previous == start - 1)
+            {
+                break;
+            }
+            start = previous;
+        }
+        return start;
+    }
+
+    /**
+     * Where the identifier at start is looked up: the globals, or what the dotted path before it names.  Null
+     * when that path cannot be resolved from the index.
+     */
+    private Symbol owner(String text, int start)
+    {
+        int from = pathStart(text, start);
+        if (from > 0 && text.charAt(from - 1) == '.')
+        {
+            // Something like foo().bar, which would need evaluating
+            return null;
+        }
+        Symbol symbol = GLOBAL_SCOPE;
+        if (from < start)
+        {
+            for (String name : text.substring(from, start - 1).split("\\."))
+            {
+                symbol = member(symbol, name);
+                if (symbol == null)
+                {
+                    break;
+                }
+            }
+        }
+        return symbol;
+    }
+
+    private Symbol member(Symbol owner, String name)
+    {
+        if (owner == GLOBAL_SCOPE)
+        {
+            synchronized (this)
+            {
+                return globals.get(name);
+            }
+        }
+        if (owner.packageName != null)
+        {
+            String qualified = owner.packageName.isEmpty() ? name : owner.packageName + "." + name;
+            if (classes.isClass(qualified))
+            {
+                return describeClass(qualified);
+            }
+            return classes.members(qualified, "", 1).isEmpty() ? null : Symbol.forPackage(qualified);
+        }
+        PrefixIndex<Symbol> members = owner.members();
+        return members == null ? null : members.get(name);
+    }
+
+    private List<String> complete(Symbol owner, String prefix)
+    {
+        if (owner == GLOBAL_SCOPE)
+        {
+            synchronized (this)
+            {
+                return globals.complete(prefix, maxMatches);
+            }
+        }
+        if (owner.packageName != null)
+        {
+            return classes.members(owner.packageName, prefix, maxMatches);
+        }
+        PrefixIndex<Symbol> members = owner.members();
+        return members == null ? new ArrayList<>() : members.complete(prefix, maxMatches);
+    }
+
+    /**
+     * If the cursor is in the class name of a {@code Java.type("...")} call, where that name starts; otherwise -1.
+     */
+    private static int javaTypeArgument(String text, int end)
+    {
+        int start = end;
+        while (start > 0 && (Character.isJavaIdentifierPart(text.charAt(start - 1)) || text.charAt(start - 1) == '.'))
+        {
+            start--;
+        }
+        int quote = start - 1;
+        if (quote < 0 || (text.charAt(quote) != '"' && text.charAt(quote) != '\''))
+        {
+            return -1;
+        }
+        int paren = quote - 1;
+        while (paren >= 0 && Character.isWhitespace(text.charAt(paren)))
+        {
+            paren--;
+        }
+        if (paren < 0 || text.charAt(paren) != '(')
+        {
+            return -1;
+        }
+        int call = paren;
+        while (call > 0 && Character.isWhitespace(text.charAt(call - 1)))
+        {
+            call--;
+        }
+        return text.startsWith(JAVA_TYPE, call - JAVA_TYPE.length()) ? start : -1;
+    }
+
+    /**
+     * A value that changes whenever the description of a global would; compared between refreshes.  A script
+     * object is compared by identity, since its properties are only listed when completed.
+     */
+    private static Object fingerprint(Object value)
+    {
+        if (value instanceof ScriptObjectMirror)
+        {
+            return value;
+        }
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                || isStaticClass(value))
+        {
+            return value;
+        }
+        // A Java object is described by its class alone
+        return value.getClass();
+    }
+
+    static Symbol describe(Object value)
+    {
+        if (value == null)
+        {
+            return new Symbol("null", "null", null, null);
+        }
+        if (ScriptObjectMirror.isUndefined(value))
+        {
+            return new Symbol("undefined", "undefined", null, null);
+        }
+        if (value instanceof ScriptObjectMirror)
+        {
+            return describeScriptObject((ScriptObjectMirror) value);
+        }
+        if (isStaticClass(value))
+        {
+            return describeClass(representedClass(value));
+        }
+        if (value instanceof String)
+        {
+            String quoted = "\"" + value + "\"";
+            return new Symbol("string", truncate(quoted), null, String.class, false);
+        }
+        if (value instanceof Number || value instanceof Boolean)
+        {
+            String kind = value instanceof Boolean ? "boolean" : "number";
+            return new Symbol(kind, value.toString(), null, value.getClass(), false);
+        }
+        return new Symbol("java object", value.getClass().getName(), null, value.getClass(), false);
+    }
+
+    private static Symbol describeClass(Class<?> type)
+    {
+        StringBuilder detail = new StringBuilder(type.toString());
+        for (Constructor<?> constructor : type.getConstructors())
+        {
+            detail.append("\n  new ").append(type.getSimpleName()).append(parameters(constructor.getParameterTypes()));
+        }
+        return new Symbol("class", type.toString(), truncate(detail.toString()), type, true);
+    }
+
+    // Loaded without running static initializers, since the user has only named the class
+    private static Symbol describeClass(String qualifiedName)
+    {
+        try
+        {
+            return describeClass(Class.forName(qualifiedName, false, CompletionIndex.class.getClassLoader()));
+        }
+        catch (ClassNotFoundException | LinkageError ex)
+        {
+            return null;
+        }
+    }
+
+    private static Symbol describeScriptObject(ScriptObjectMirror mirror)
+    {
+        if ("JavaPackage".equals(mirror.getClassName()))
+        {
+            return Symbol.forPackage(packageName(mirror));
+        }
+        if (mirror.isFunction())
+        {
+            String source = String.valueOf(mirror);
+            int body = source.indexOf('{');
+            String signature = (body < 0 ? source : source.substring(0, body)).trim();
+            return Symbol.forScriptObject("function", signature, truncate(source), mirror);
+        }
+        if (mirror.isArray())
+        {
+            return Symbol.forScriptObject("array", "Array of length " + mirror.getMember("length"), null, mirror);
+        }
+        return Symbol.forScriptObject("object", mirror.getClassName() + " object", null, mirror);
+    }
+
+    /**
+     * The properties of a script object and its prototypes, as they are now.  Read while a cell may be changing
+     * the object, so one that cannot be read just has nothing to complete.
+     */
+    private static PrefixIndex<Symbol> scriptMembers(ScriptObjectMirror mirror)
+    {
+        PrefixIndex<Symbol> members = new PrefixIndex<>();
+        Symbol property = new Symbol("property", "", null, null);
+        try
+        {
+            // Array elements are not worth completing, and there may be millions of them
+            if (!mirror.isArray())
+            {
+                for (String key : mirror.getOwnKeys(true))
+                {
+                    members.put(key, property);
+                }
+            }
+            for (Object proto = mirror.getProto(); proto instanceof ScriptObjectMirror;
+                 proto = ((ScriptObjectMirror) proto).getProto())
+            {
+                for (String key : ((ScriptObjectMirror) proto).getOwnKeys(true))
+                {
+                    if (members.get(key) == null)
+                    {
+                        members.put(key, property);
+                    }
+                }
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            return new PrefixIndex<>();
+        }
+        return members;
+    }
+
+    // Nashorn shows a package as "[JavaPackage java.util]"
+    private static String packageName(ScriptObjectMirror javaPackage)
+    {
+        String text = String.valueOf(javaPackage);
+        int space = text.indexOf(' ');
+        return space < 0 || !text.endsWith("]") ? "" : text.substring(space + 1, text.length() - 1).trim();
+    }
+
+    private static boolean isStaticClass(Object value)
+    {
+        return value != null && STATIC_CLASS_TYPES.contains(value.getClass().getName());
+    }
+
+    private static Class<?> representedClass(Object staticClass)
+    {
+        try
+        {
+            return (Class<?>) staticClass.getClass().getMethod("getRepresentedClass").invoke(staticClass);
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Cannot read the class of " + staticClass, ex);
+        }
+    }
+
+    /**
+     * The methods, fields and bean properties a script can use on a Java class (statics) or on its instances.
+     * Built once per class and shared by every session.
+     */
+    static PrefixIndex<Symbol> javaMembers(Class<?> type, boolean statics)
+    {
+        ConcurrentMap<Class<?>, PrefixIndex<Symbol>> cache = statics ? STATIC_MEMBERS : INSTANCE_MEMBERS;
+        PrefixIndex<Symbol> members = cache.get(type);
+        if (members == null)
+        {
+            members = buildJavaMembers(type, statics);
+            PrefixIndex<Symbol> existing = cache.putIfAbsent(type, members);
+            if (existing != null)
+            {
+                members = existing;
+            }
+        }
+        return members;
+    }
+
+    private static PrefixIndex<Symbol> buildJavaMembers(Class<?> type, boolean statics)
+    {
+        PrefixIndex<Symbol> members = new PrefixIndex<>();
+        if (!Modifier.isPublic(type.getModifiers()))
+        {
+            return members;
+        }
+        Map<String, List<Method>> methods = new TreeMap<>();
+        for (Method method : type.getMethods())
+        {
+            if (Modifier.isStatic(method.getModifiers()) == statics)
+            {
+                methods.computeIfAbsent(method.getName(), k -> new ArrayList<>()).add(method);
+            }
+        }
+        for (Map.Entry<String, List<Method>> entry : methods.entrySet())
+        {
+            String signatures = entry.getValue().stream()
+                    .map(m -> m.getReturnType().getSimpleName() + " " + m.getName() + parameters(m.getParameterTypes()))
+                    .sorted().collect(Collectors.joining("\n"));
+            members.put(entry.getKey(), new Symbol("method", truncate(signatures), null, null));
+            if (!statics)
+            {
+                addBeanProperty(members, entry.getValue());
+            }
+        }
+        for (Field field : type.getFields())
+        {
+            if (Modifier.isStatic(field.getModifiers()) == statics)
+            {
+                members.put(field.getName(), new Symbol("field", field.getType().getSimpleName() + " "
+                        + field.getName(), null, field.getType(), false));
+            }
+        }
+        if (statics)
+        {
+            members.put("class", new Symbol("property", "Class class", null, Class.class, false));
+            for (Class<?> nested : type.getClasses())
+            {
+                members.put(nested.getSimpleName(), new Symbol("class", nested.toString(), null, nested, true));
+            }
+        }
+        return members;
+    }
+
+    // Nashorn lets getX() and isX() be read as a property x
+    private static void addBeanProperty(PrefixIndex<Symbol> members, List<Method> overloads)
+    {
+        for (Method method : overloads)
+        {
+            String name = method.getName();
+            int prefix = name.startsWith("get") ? 3 : name.startsWith("is") ? 2 : 0;
+            if (prefix == 0 || name.length() == prefix || method.getParameterCount() != 0
+                    || method.getReturnType() == void.class)
+            {
+                continue;
+            }
+            String property = Introspector.decapitalize(name.substring(prefix));
+            if (members.get(property) == null)
+            {
+                members.put(property, new Symbol("property", method.getReturnType().getSimpleName() + " "
+                        + property, null, method.getReturnType(), false));
+            }
+        }
+    }
+
+    private static String parameters(Class<?>[] types)
+    {
+        return Arrays.stream(types).map(Class::getSimpleName).collect(Collectors.joining(", ", "(", ")"));
+    }
+
+    private static String truncate(String text)
+    {
+        return text.length() <= MAX_TEXT ? text : text.substring(0, MAX_TEXT) + ResultRenderer.ELLIPSIS;
+    }
+}
@@ -1,3 +1,5 @@
+package simplekernel;
+
 public class Config
 {
     public int control_port;
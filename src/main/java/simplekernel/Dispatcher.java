@@ -0,0 +1,246 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reads requests off the control, stdin and shell sockets and hands each to the handler registered for its
+ * channel and message type.
+ *
+ * Each wakeup drains every readable socket into its channel's queue, up to a batch, and then works through the
+ * queues with control strictly first: the control socket is read again before every other request, so a shutdown
+ * or interrupt waits behind at most the one request being handled, however much shell traffic is queued.  Requests
+ * past a full queue stay in the socket until the next wakeup.
+ *
+ * Handlers run on the poll thread unless they are registered to run on the dispatch thread, which is for work
+ * slow enough to hold up the requests behind it; replies from there go out through the outbox.  Urgent handlers,
+ * for cheap requests that clients use to check the kernel is alive, run as soon as their request is read.  A
+ * handler that fails is answered for it: a request gets an error reply, and a kernel it reported busy is reported
+ * idle again, so the client is not left waiting.  A message that cannot be read is logged and dropped.
+ */
+class Dispatcher
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Dispatcher.class);
+    private static final long SHUTDOWN_MILLIS = 1000;
+    private static final String[] CHANNEL_NAMES = { "control", "stdin", "shell" };
+
+    enum Mode
+    {
+        // On the poll thread, before the next request is read
+        INLINE,
+        // On the poll thread as soon as it is read, ahead of the requests already queued on its channel
+        URGENT,
+        // On the dispatch thread, in the order received, while the poll thread moves on
+        EXECUTOR
+    }
+
+    interface Handler
+    {
+        void handle(Message msg) throws Exception;
+    }
+
+    private static final class Registration
+    {
+        final Mode mode;
+        final Handler handler;
+
+        Registration(Mode mode, Handler handler)
+        {
+            this.mode = mode;
+            this.handler = handler;
+        }
+    }
+
+    private final Signer signer;
+    private final ZMQ.Socket[] sockets;
+    private final Outbox outbox;
+    private final int batch;
+    private final List<Map<String, Registration>> handlers;
+    private final List<ArrayDeque<Message>> queues;
+    private final ExecutorService executor;
+
+    /**
+     * @param sockets the control, stdin and shell sockets, indexed by channel id
+     * @param outbox where the replies for failed handlers go
+     */
+    Dispatcher(Signer signer, ZMQ.Socket[] sockets, Outbox outbox, int batch)
+    {
+        this.signer = signer;
+        this.sockets = sockets;
+        this.outbox = outbox;
+        this.batch = Math.max(1, batch);
+        handlers = new ArrayList<>(sockets.length);
+        queues = new ArrayList<>(sockets.length);
+        for (int channel = 0; channel < sockets.length; channel++)
+        {
+            handlers.add(new HashMap<>());
+            queues.add(new ArrayDeque<>(this.batch));
+        }
+        executor = Executors.newSingleThreadExecutor(r ->
+        {
+            Thread thread = OutputRouter.unroutedThread(r, "kernel-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void register(int channel, String msgType, Mode mode, Handler handler)
+    {
+        handlers.get(channel).put(msgType, new Registration(mode, handler));
+    }
+
+    /**
+     * Read and handle what the last poll found, on the poll thread.
+     */
+    void dispatch(ZMQ.Poller items) throws Exception
+    {
+        for (int channel = 0; channel < sockets.length; channel++)
+        {
+            if (items.pollin(channel))
+            {
+                fill(channel);
+            }
+        }
+        int channel;
+        while ((channel = next()) >= 0)
+        {
+            handle(channel, queues.get(channel).poll());
+        }
+    }
+
+    // The channel to take the next request from, or -1 when every queue is empty
+    private int next() throws Exception
+    {
+        fill(SimpleKernel.CONTROL);
+        for (int channel = 0; channel < queues.size(); channel++)
+        {
+            if (!queues.get(channel).isEmpty())
+            {
+                return channel;
+            }
+        }
+        return -1;
+    }
+
+    private void fill(int channel) throws Exception
+    {
+        ZMQ.Socket socket = sockets[channel];
+        ArrayDeque<Message> queue = queues.get(channel);
+        while (queue.size() < batch && (socket.getEvents() & ZMQ.Poller.POLLIN) != 0)
+        {
+            Message msg;
+            Registration registration;
+            try
+            {
+                msg = Message.recv(signer, socket);
+                if (msg == null)
+                {
+                    continue;
+                }
+                registration = handlers.get(channel).get(msg.header.msg_type);
+            }
+            catch (Exception ex)
+            {
+                LOG.warn("Dropping unreadable " + CHANNEL_NAMES[channel] + " message", ex);
+                continue;
+            }
+            if (registration != null && registration.mode == Mode.URGENT)
+            {
+                run(channel, registration.handler, msg);
+            }
+            else
+            {
+                queue.add(msg);
+            }
+        }
+    }
+
+    private void handle(int channel, Message msg)
+    {
+        Registration registration = handlers.get(channel).get(msg.header.msg_type);
+        if (registration == null)
+        {
+            LOG.warn("unknown " + CHANNEL_NAMES[channel] + " msg_type " + msg.header.msg_type);
+        }
+        else if (registration.mode == Mode.EXECUTOR)
+        {
+            executor.execute(() -> run(channel, registration.handler, msg));
+        }
+        else
+        {
+            run(channel, registration.handler, msg);
+        }
+    }
+
+    private void run(int channel, Handler handler, Message msg)
+    {
+        try
+        {
+            handler.handle(msg);
+        }
+        catch (Exception ex)
+        {
+            LOG.error("Failed to handle " + msg.header.msg_type, ex);
+            try
+            {
+                fail(channel, msg, ex);
+            }
+            catch (Exception sendEx)
+            {
+                LOG.error("Failed to answer " + msg.header.msg_type, sendEx);
+            }
+        }
+    }
+
+    /**
+     * Answer a request whose handler failed with an error reply, if the message type has replies, and report the
+     * kernel idle if the handler had reported it busy.
+     */
+    private void fail(int channel, Message msg, Exception ex) throws Exception
+    {
+        String msgType = msg.header.msg_type;
+        if (msgType.endsWith("_request"))
+        {
+            Message reply = new Message(msg, msgType.substring(0, msgType.length() - "_request".length()) + "_reply");
+            reply.getContent().put("status", "error");
+            reply.getContent().put("ename", ex.getClass().toString());
+            reply.getContent().put("evalue", ex.getMessage());
+            reply.getContent().put("traceback",
+                    Arrays.stream(ex.getStackTrace()).map(f -> f.toString()).collect(Collectors.toList()));
+            reply.identities = msg.identities;
+            outbox.send(channel, reply);
+        }
+        if (msg.busy)
+        {
+            Message idle = new Message(msg, "status");
+            idle.getContent().put("execution_state", "idle");
+            outbox.send(SimpleKernel.IOPUB, idle);
+            msg.busy = false;
+        }
+    }
+
+    /**
+     * Let the handlers already given to the dispatch thread finish, for a while, so their replies reach the outbox
+     * before it closes.
+     */
+    void shutdown() throws InterruptedException
+    {
+        executor.shutdown();
+        if (!executor.awaitTermination(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS))
+        {
+            LOG.warn("Dispatch thread still busy at shutdown");
+        }
+    }
+}
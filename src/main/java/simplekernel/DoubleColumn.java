@@ -0,0 +1,152 @@
+package simplekernel;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.BitSet;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Doubles, the type script numbers have.
+ */
+public class DoubleColumn extends NumericColumn
+{
+    static final int WIDTH = Double.BYTES;
+
+    private final DoubleBuffer values;
+
+    DoubleColumn(ByteBuffer data, int length)
+    {
+        super(data, length);
+        values = data.asDoubleBuffer();
+    }
+
+    public static DoubleColumn allocate(int length)
+    {
+        return new DoubleColumn(allocate(length, WIDTH), length);
+    }
+
+    /**
+     * A column over a file of little-endian doubles, sized to {@code length}, or to the file when it is negative.
+     */
+    public static DoubleColumn mapped(String path, int length) throws IOException
+    {
+        ByteBuffer data = map(path, length, WIDTH);
+        return new DoubleColumn(data, data.capacity() / WIDTH);
+    }
+
+    public static DoubleColumn of(double[] values)
+    {
+        DoubleColumn column = allocate(values.length);
+        column.values.put(values, 0, values.length);
+        return column;
+    }
+
+    public static DoubleColumn generate(int length, IntToDoubleFunction value)
+    {
+        DoubleColumn column = allocate(length);
+        for (int i = 0; i < length; i++)
+        {
+            column.values.put(i, value.applyAsDouble(i));
+        }
+        return column;
+    }
+
+    @Override
+    public String getType()
+    {
+        return "double";
+    }
+
+    public double get(int row)
+    {
+        return values.get(row);
+    }
+
+    public void set(int row, double value)
+    {
+        values.put(row, value);
+    }
+
+    @Override
+    public double getDouble(int row)
+    {
+        return values.get(row);
+    }
+
+    public DoubleColumn map(DoubleUnaryOperator operator)
+    {
+        DoubleColumn result = allocate(length);
+        for (int i = 0; i < length; i++)
+        {
+            result.values.put(i, operator.applyAsDouble(values.get(i)));
+        }
+        return result;
+    }
+
+    @Override
+    public double sum()
+    {
+        double sum = 0;
+        for (int i = 0; i < length; i++)
+        {
+            sum += values.get(i);
+        }
+        return sum;
+    }
+
+    @Override
+    public double min()
+    {
+        double min = length == 0 ? Double.NaN : Double.POSITIVE_INFINITY;
+        for (int i = 0; i < length; i++)
+        {
+            min = Math.min(min, values.get(i));
+        }
+        return min;
+    }
+
+    @Override
+    public double max()
+    {
+        double max = length == 0 ? Double.NaN : Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++)
+        {
+            max = Math.max(max, values.get(i));
+        }
+        return max;
+    }
+
+    @Override
+    public DoubleColumn filter(BitSet rows)
+    {
+        DoubleColumn result = allocate(count(rows, length));
+        int out = 0;
+        for (int i = rows.nextSetBit(0); i >= 0 && i < length; i = rows.nextSetBit(i + 1))
+        {
+            result.values.put(out++, values.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public DoubleColumn asDoubles()
+    {
+        return this;
+    }
+
+    @Override
+    String format(int row)
+    {
+        return formatDouble(values.get(row));
+    }
+
+    @Override
+    void writeValue(JsonGenerator gen, int row) throws IOException
+    {
+        writeDouble(gen, values.get(row));
+    }
+}
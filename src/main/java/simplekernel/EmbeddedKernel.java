@@ -0,0 +1,191 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+
+import java.security.GeneralSecurityException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A kernel run by a host application inside its own JVM, for notebooks on the application's live objects.  Objects
+ * bound with {@link ScriptRuntime#bind} are globals of every session.
+ *
+ * By default the channels are {@code inproc} sockets in a ZeroMQ context of the kernel's own, reached through
+ * {@link #connect}: messages between the host's client and the kernel are handed over in memory, without the TCP
+ * stack, and are not signed, since nothing outside the JVM can reach them.  Given a {@link Config} the kernel
+ * listens on its transport instead, so a Jupyter frontend can attach with a matching connection file.
+ *
+ * <pre>
+ * ScriptRuntime runtime = new ScriptRuntime(settings);
+ * runtime.bind("orders", orderBook);
+ * EmbeddedKernel kernel = new EmbeddedKernel(settings, runtime);
+ * kernel.start();
+ * ZMQ.Socket shell = kernel.connect("shell");
+ * </pre>
+ */
+public class EmbeddedKernel implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedKernel.class);
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    private final Config config;
+    private final ZMQ.Context context;
+    private final SimpleKernel kernel;
+    private final Signer signer;
+    private Thread thread;
+
+    /**
+     * A kernel on {@code inproc} sockets, not reachable from outside this JVM.
+     */
+    public EmbeddedKernel(Settings settings, ScriptRuntime runtime) throws GeneralSecurityException
+    {
+        this(inprocConfig(), settings, runtime);
+    }
+
+    public EmbeddedKernel(Config config, Settings settings, ScriptRuntime runtime) throws GeneralSecurityException
+    {
+        this.config = config;
+        this.context = ZMQ.context(1);
+        this.kernel = new SimpleKernel(config, settings, runtime, context);
+        this.signer = Signer.create(config, settings.signBuffers);
+    }
+
+    /**
+     * Unique {@code inproc} addresses and no key.
+     */
+    public static Config inprocConfig()
+    {
+        Config config = new Config();
+        config.transport = "inproc";
+        config.ip = "kernel-" + UUID.randomUUID();
+        config.shell_port = 1;
+        config.iopub_port = 2;
+        config.stdin_port = 3;
+        config.control_port = 4;
+        config.hb_port = 5;
+        config.key = "";
+        config.kernel_name = "embedded";
+        return config;
+    }
+
+    /**
+     * Run the kernel on a thread of its own until {@link #close}, or a shutdown_request, stops it.
+     */
+    public synchronized void start()
+    {
+        if (thread != null)
+        {
+            throw new IllegalStateException("Kernel already started");
+        }
+        thread = new Thread(() ->
+        {
+            try
+            {
+                kernel.start(null);
+            }
+            catch (Exception ex)
+            {
+                LOG.error("Embedded kernel failed", ex);
+            }
+        }, "embedded-kernel-" + COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Config getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * The context the kernel's sockets are in; {@code inproc} clients must create their sockets in it.
+     */
+    public ZMQ.Context getContext()
+    {
+        return context;
+    }
+
+    /**
+     * Signs and checks messages as the kernel does, for {@link Message#send} and {@link Message#recv}.
+     */
+    public Signer getSigner()
+    {
+        return signer;
+    }
+
+    /**
+     * A client socket connected to one of the kernel's channels, named as in a connection file: {@code shell},
+     * {@code control} and {@code stdin} are DEALERs, {@code iopub} a SUB subscribed to everything and {@code hb}
+     * a REQ.  The caller owns the socket and must close it before {@link #close}, which waits for all sockets in
+     * the context to be closed.
+     */
+    public ZMQ.Socket connect(String channel)
+    {
+        int type;
+        int port;
+        switch (channel)
+        {
+            case "shell":
+                type = ZMQ.DEALER;
+                port = config.shell_port;
+                break;
+            case "control":
+                type = ZMQ.DEALER;
+                port = config.control_port;
+                break;
+            case "stdin":
+                type = ZMQ.DEALER;
+                port = config.stdin_port;
+                break;
+            case "iopub":
+                type = ZMQ.SUB;
+                port = config.iopub_port;
+                break;
+            case "hb":
+                type = ZMQ.REQ;
+                port = config.hb_port;
+                break;
+            default:
+                throw new IllegalArgumentException("No channel " + channel);
+        }
+        ZMQ.Socket socket = context.socket(type);
+        socket.setLinger(0);
+        if (type == ZMQ.SUB)
+        {
+            socket.subscribe(new byte[0]);
+        }
+        socket.connect(Utils.endpoint(config.transport, config.ip, port));
+        return socket;
+    }
+
+    /**
+     * Stop the kernel, wait for it to finish and release its context.  If the calling thread is interrupted while
+     * waiting, the kernel is left to finish on its own, the context is not released and the thread stays
+     * interrupted.
+     */
+    @Override
+    public void close()
+    {
+        kernel.stop();
+        synchronized (this)
+        {
+            if (thread == null)
+            {
+                // Already stopped, so this only closes the sockets the constructor bound
+                start();
+            }
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        context.term();
+    }
+}
@@ -0,0 +1,290 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one session's execute requests off the poll thread, one at a time and in arrival order, so control, stdin
+ * and kernel_info traffic keep being served while a cell evaluates.  The requests run on a worker pool shared by
+ * every session, taking one request per turn so a session with a long queue does not hold a worker from the
+ * others.
+ *
+ * An interrupt first interrupts the execution thread, which is enough for cells blocked in sleeps, waits or
+ * interruptible I/O.  Nashorn does not check the interrupt flag in script loops, so a cell that is still inside
+ * {@link #interruptible(Callable)} after a grace period is stopped with {@link Thread#stop()}; the resulting
+ * {@link ThreadDeath} surfaces from {@code interruptible} and is reported by the handler like any other error.
+ * The stop is held back while the cell is inside kernel code guarded by {@link StopGuard}.
+ */
+class ExecutionEngine
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutionEngine.class);
+    private static final long INTERRUPT_GRACE_MILLIS = 200;
+
+    interface Handler
+    {
+        void handle(Message msg) throws Exception;
+    }
+
+    private final Handler handler;
+    private final Executor workers;
+    private final ScheduledExecutorService interrupter;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private final Queue<Message> queue = new ArrayDeque<>();
+    private boolean scheduled;
+    private Thread running;
+    private StopGuard guard;
+    private int turn;
+    private Message current;
+    private boolean evaluating;
+    private boolean stopped;
+
+    /**
+     * @param workers     runs the requests; shared between sessions
+     * @param interrupter schedules the stop that follows an unanswered interrupt
+     */
+    ExecutionEngine(Handler handler, Executor workers, ScheduledExecutorService interrupter)
+    {
+        this.handler = handler;
+        this.workers = workers;
+        this.interrupter = interrupter;
+    }
+
+    static ExecutorService createWorkers(int threads)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), r ->
+        {
+            Thread thread = OutputRouter.unroutedThread(r, "kernel-execution-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static ScheduledExecutorService createInterrupter()
+    {
+        return Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread thread = OutputRouter.unroutedThread(r, "kernel-interrupter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void submit(Message msg)
+    {
+        pending.incrementAndGet();
+        synchronized (lock)
+        {
+            queue.add(msg);
+            if (scheduled)
+            {
+                return;
+            }
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    private void schedule()
+    {
+        try
+        {
+            workers.execute(this::runNext);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            LOG.warn("Execution workers are shut down, dropping queued requests");
+        }
+    }
+
+    private void runNext()
+    {
+        Message msg;
+        synchronized (lock)
+        {
+            msg = queue.poll();
+            if (msg == null)
+            {
+                // Cleared by shutdown
+                scheduled = false;
+                return;
+            }
+        }
+        run(msg);
+        synchronized (lock)
+        {
+            if (queue.isEmpty())
+            {
+                scheduled = false;
+                return;
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Number of requests queued or executing.
+     */
+    int queueDepth()
+    {
+        return pending.get();
+    }
+
+    private void run(Message msg)
+    {
+        StopGuard threadGuard = StopGuard.current();
+        threadGuard.reset();
+        synchronized (lock)
+        {
+            running = Thread.currentThread();
+            guard = threadGuard;
+            current = msg;
+            evaluating = false;
+            stopped = false;
+        }
+        try
+        {
+            handler.handle(msg);
+        }
+        catch (Exception | ThreadDeath ex)
+        {
+            LOG.error("Failed to handle " + msg.header.msg_type, ex);
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                running = null;
+                guard = null;
+                current = null;
+                evaluating = false;
+            }
+            Thread.interrupted();
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Run the part of a request that may be cancelled.  Only work inside this call is ever stopped, so replies
+     * sent before or after it are never cut short.
+     */
+    <T> T interruptible(Callable<T> work) throws Exception
+    {
+        StopGuard threadGuard = StopGuard.current();
+        int armed = threadGuard.arm();
+        synchronized (lock)
+        {
+            evaluating = true;
+            turn = armed;
+        }
+        try
+        {
+            return work.call();
+        }
+        catch (ThreadDeath ex)
+        {
+            threadGuard.received(ex);
+            throw ex;
+        }
+        finally
+        {
+            // Before anything else, so the stop for this work, or one held back by kernel code the cell was in,
+            // cannot outlive it and cut short the error reply
+            ThreadDeath late = threadGuard.disarm(INTERRUPT_GRACE_MILLIS);
+            synchronized (lock)
+            {
+                evaluating = false;
+            }
+            Thread.interrupted();
+            if (late != null)
+            {
+                throw late;
+            }
+        }
+    }
+
+    /**
+     * Cancel the request that is executing, if any.  Returns false when there was nothing to interrupt.
+     */
+    boolean interrupt()
+    {
+        final Message target;
+        synchronized (lock)
+        {
+            if (running == null || !evaluating)
+            {
+                return false;
+            }
+            target = current;
+            running.interrupt();
+        }
+        interrupter.schedule(() -> stop(target), INTERRUPT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void stop(Message target)
+    {
+        Thread thread;
+        StopGuard threadGuard;
+        int armed;
+        synchronized (lock)
+        {
+            if (current != target || !evaluating || stopped)
+            {
+                return;
+            }
+            stopped = true;
+            thread = running;
+            threadGuard = guard;
+            armed = turn;
+        }
+        LOG.warn("Execution did not respond to interrupt, stopping it");
+        // Outside lock, which the cell takes on its way out; the guard stops it only if that work is still going,
+        // and waits for it to leave kernel code, such as the outbox, that must not be cut short
+        threadGuard.stop(thread, armed);
+    }
+
+    /**
+     * Drop the requests that have not started and interrupt the one executing.
+     */
+    void shutdown()
+    {
+        synchronized (lock)
+        {
+            pending.addAndGet(-queue.size());
+            queue.clear();
+        }
+        interrupt();
+    }
+
+    static void shutdown(ExecutorService workers, ScheduledExecutorService interrupter)
+    {
+        workers.shutdown();
+        try
+        {
+            if (!workers.awaitTermination(INTERRUPT_GRACE_MILLIS * 5, TimeUnit.MILLISECONDS))
+            {
+                LOG.warn("Execution workers did not finish before shutdown");
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        interrupter.shutdown();
+    }
+}
@@ -0,0 +1,236 @@
+package simplekernel;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Resolves, fetches and compiles the scripts named in an extension list.
+ *
+ * Sources are fetched in parallel.  Remote sources go through a content-addressed cache on disk:
+ * {@code sources/<sha256>.js} holds the script and {@code urls/<sha256 of url>} names the content it resolved to,
+ * so once a URL has been fetched later starts read it from disk without touching the network.  Local files and
+ * classpath resources are read directly.  Each source is then compiled once, in list order; with the persistent
+ * code cache enabled Nashorn also keeps the generated classes under {@code code/}.
+ */
+class ExtensionLoader
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ExtensionLoader.class);
+
+    static class Extension
+    {
+        final String name;
+        final CompiledScript script;
+
+        Extension(String name, CompiledScript script)
+        {
+            this.name = name;
+            this.script = script;
+        }
+    }
+
+    private static class Source
+    {
+        final String name;
+        final String text;
+
+        Source(String name, String text)
+        {
+            this.name = name;
+            this.text = text;
+        }
+    }
+
+    private final ScriptEngine engine;
+    private final Settings settings;
+    private final File sourceDir;
+    private final File urlDir;
+
+    ExtensionLoader(ScriptEngine engine, Settings settings)
+    {
+        this.engine = engine;
+        this.settings = settings;
+        File cacheDir = new File(settings.extensionCacheDir);
+        sourceDir = new File(cacheDir, "sources");
+        urlDir = new File(cacheDir, "urls");
+    }
+
+    static File codeCacheDir(Settings settings)
+    {
+        return new File(settings.extensionCacheDir, "code");
+    }
+
+    /**
+     * Fetch and compile every extension in the list.  Extensions that fail are logged and skipped, as before.
+     */
+    List<Extension> load(String extensionList) throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        try (InputStream is = Utils.openResource(extensionList, SimpleKernel.class))
+        {
+            for (String line : IOUtils.readLines(is, StandardCharsets.UTF_8))
+            {
+                String extensionName = line.trim();
+                if (!extensionName.isEmpty())
+                {
+                    names.add(extensionName);
+                }
+            }
+        }
+
+        ExecutorService fetchers = Executors.newFixedThreadPool(Math.max(1, Math.min(names.size(), settings.extensionFetchThreads)), r ->
+        {
+            Thread thread = OutputRouter.unroutedThread(r, "extension-fetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<CompletableFuture<Source>> sources = new ArrayList<>();
+        try
+        {
+            for (String name : names)
+            {
+                sources.add(CompletableFuture.supplyAsync(() -> fetch(name), fetchers));
+            }
+
+            List<Extension> extensions = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++)
+            {
+                String extensionName = names.get(i);
+                try
+                {
+                    Source source = sources.get(i).join();
+                    extensions.add(new Extension(extensionName, compile(source)));
+                }
+                catch (Exception ex)
+                {
+                    LOG.error("Failed to load extension: " + extensionName + ". Attempting to continue", ex);
+                }
+            }
+            return extensions;
+        }
+        finally
+        {
+            fetchers.shutdownNow();
+        }
+    }
+
+    private CompiledScript compile(Source source) throws Exception
+    {
+        // The file name shows up in stack traces instead of <eval>
+        Object previous = engine.get(ScriptEngine.FILENAME);
+        engine.put(ScriptEngine.FILENAME, source.name);
+        try
+        {
+            return ((Compilable) engine).compile(new StringReader(source.text));
+        }
+        finally
+        {
+            engine.put(ScriptEngine.FILENAME, previous);
+        }
+    }
+
+    private Source fetch(String extensionName)
+    {
+        try
+        {
+            URL url = Utils.getURL(extensionName, SimpleKernel.class);
+            String protocol = url.getProtocol();
+            if (protocol.equals("file") || protocol.equals("jar"))
+            {
+                return new Source(extensionName, read(url));
+            }
+            return fetchCached(extensionName, url);
+        }
+        catch (IOException ex)
+        {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private Source fetchCached(String extensionName, URL url) throws IOException
+    {
+        File pointer = new File(urlDir, sha256(url.toString().getBytes(StandardCharsets.UTF_8)));
+        if (pointer.isFile() && !settings.extensionRefresh)
+        {
+            File cached = new File(sourceDir, FileUtils.readFileToString(pointer, StandardCharsets.UTF_8).trim() + ".js");
+            if (cached.isFile())
+            {
+                LOG.debug("Extension " + extensionName + " served from " + cached);
+                return new Source(cached.getPath(), FileUtils.readFileToString(cached, StandardCharsets.UTF_8));
+            }
+        }
+
+        LOG.info("Fetching extension " + url);
+        String text = read(url);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        String digest = sha256(bytes);
+        File cached = new File(sourceDir, digest + ".js");
+        if (!cached.isFile())
+        {
+            writeAtomically(cached, bytes);
+        }
+        writeAtomically(pointer, digest.getBytes(StandardCharsets.UTF_8));
+        return new Source(cached.getPath(), text);
+    }
+
+    private static String read(URL url) throws IOException
+    {
+        try (InputStream is = url.openStream())
+        {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Other kernels may be reading the cache at the same time, so entries only ever appear whole
+    static void writeAtomically(File target, byte[] bytes) throws IOException
+    {
+        FileUtils.forceMkdir(target.getParentFile());
+        File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try
+        {
+            FileUtils.writeByteArrayToFile(temp, bytes);
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    static String sha256(byte[] bytes)
+    {
+        try
+        {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes))
+            {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package simplekernel;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.zeromq.ZMQ;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Per-thread scratch buffer holding the four signed frames of an outgoing message.
+ *
+ * Each frame is either an existing array (a templated header, the parent's raw header, a cached constant payload)
+ * or a slice of this buffer that Jackson streamed into.  Slices are copied exactly once: by ZeroMQ when the frame
+ * is sent from this thread, or into a standalone array when it is queued for another thread.  Existing arrays are
+ * handed over as they are.
+ */
+class FrameBuffer extends ByteArrayOutputStream
+{
+    static final int HEADER = 0;
+    static final int PARENT = 1;
+    static final int METADATA = 2;
+    static final int CONTENT = 3;
+
+    private static final int INITIAL_SIZE = 4096;
+    // A cell that sent one huge result should not pin that much memory on its thread forever
+    private static final int MAX_RETAINED_SIZE = 1 << 20;
+
+    private static final ThreadLocal<FrameBuffer> BUFFERS = ThreadLocal.withInitial(FrameBuffer::new);
+
+    private final byte[][] arrays = new byte[4][];
+    private final int[] offsets = new int[4];
+    private final int[] lengths = new int[4];
+
+    private FrameBuffer()
+    {
+        super(INITIAL_SIZE);
+    }
+
+    static FrameBuffer get()
+    {
+        FrameBuffer frames = BUFFERS.get();
+        frames.reset();
+        return frames;
+    }
+
+    void release()
+    {
+        for (int i = 0; i < arrays.length; i++)
+        {
+            arrays[i] = null;
+        }
+        if (buf.length > MAX_RETAINED_SIZE)
+        {
+            BUFFERS.remove();
+        }
+    }
+
+    void set(int frame, byte[] bytes)
+    {
+        arrays[frame] = bytes;
+        offsets[frame] = 0;
+        lengths[frame] = bytes.length;
+    }
+
+    void write(int frame, ObjectWriter writer, Object value) throws IOException
+    {
+        int start = count;
+        writer.writeValue(this, value);
+        arrays[frame] = null;
+        offsets[frame] = start;
+        lengths[frame] = count - start;
+    }
+
+    byte[] array(int frame)
+    {
+        // Slices are resolved late because the backing array may have grown since they were written
+        return arrays[frame] != null ? arrays[frame] : buf;
+    }
+
+    int offset(int frame)
+    {
+        return offsets[frame];
+    }
+
+    int length(int frame)
+    {
+        return lengths[frame];
+    }
+
+    /**
+     * The frame as a standalone array, copying it out of the buffer only if it is a slice.
+     */
+    byte[] copy(int frame)
+    {
+        if (arrays[frame] != null)
+        {
+            return arrays[frame];
+        }
+        return Arrays.copyOfRange(buf, offsets[frame], offsets[frame] + lengths[frame]);
+    }
+
+    void send(ZMQ.Socket socket, int flags)
+    {
+        for (int i = 0; i < arrays.length; i++)
+        {
+            int more = i < arrays.length - 1 ? ZMQ.SNDMORE : flags;
+            if (arrays[i] != null)
+            {
+                socket.send(arrays[i], more);
+            }
+            else
+            {
+                socket.send(buf, offsets[i], lengths[i], more);
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        // Jackson closes its target after each value; the buffer stays open for the next frame
+    }
+}
@@ -0,0 +1,43 @@
+package simplekernel;
+
+import java.io.IOException;
+
+public class Header
+{
+    public String msg_id;
+    public String username;
+    public String session;
+    public String date;
+    public String msg_type;
+    public String version = "5.0";
+
+    public Header()
+    {
+
+    }
+    public Header(String sessionId, String messageType)
+    {
+        msg_id = HeaderFactory.nextMessageId();
+        username = "kernel";
+        date = HeaderFactory.now();
+        session = sessionId;
+        msg_type = messageType;
+        version = "5.0";
+    }
+
+    /**
+     * Serialize this header, using the session's pre-built template when the header has the kernel's shape.
+     */
+    public byte[] toBytes() throws IOException
+    {
+        if (session != null && HeaderTemplate.USERNAME.equals(username) && HeaderTemplate.VERSION.equals(version))
+        {
+            byte[] bytes = HeaderTemplate.forSession(session).render(msg_id, date, msg_type);
+            if (bytes != null)
+            {
+                return bytes;
+            }
+        }
+        return Message.OBJECT_MAPPER.writeValueAsBytes(this);
+    }
+}
@@ -0,0 +1,110 @@
+package simplekernel;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message ids and timestamps for new headers, made without locks and with as little garbage as possible since
+ * every stream chunk needs both.
+ *
+ * Ids are a random prefix chosen once per JVM plus a counter, the same shape ipykernel uses, so only the first
+ * one touches the shared SecureRandom behind UUID.  Timestamps are ISO-8601 UTC with microseconds; the
+ * date-and-seconds part is formatted once per second and cached, so most calls only fill in the fraction.
+ */
+final class HeaderFactory
+{
+    private static final String ID_PREFIX = UUID.randomUUID().toString() + "_";
+    private static final AtomicLong ID_COUNTER = new AtomicLong();
+
+    // "yyyy-MM-ddTHH:mm:ss." + 6 fraction digits + "Z"
+    private static final int SECOND_LENGTH = 20;
+    private static final int TIMESTAMP_LENGTH = SECOND_LENGTH + 7;
+
+    private static volatile Second current = new Second(Instant.now().getEpochSecond());
+
+    private static final class Second
+    {
+        final long epochSecond;
+        final char[] prefix;
+
+        Second(long epochSecond)
+        {
+            this.epochSecond = epochSecond;
+            this.prefix = format(epochSecond);
+        }
+    }
+
+    private HeaderFactory()
+    {
+    }
+
+    static String nextMessageId()
+    {
+        return ID_PREFIX + ID_COUNTER.incrementAndGet();
+    }
+
+    static String now()
+    {
+        return timestamp(Instant.now());
+    }
+
+    /**
+     * Format an instant as yyyy-MM-ddTHH:mm:ss.SSSSSSZ.  Precision is whatever the clock gives, which is
+     * milliseconds on Java 8 and microseconds on later releases.
+     */
+    static String timestamp(Instant instant)
+    {
+        long epochSecond = instant.getEpochSecond();
+        Second second = current;
+        if (second.epochSecond != epochSecond)
+        {
+            // Racing threads may each format the same second; any of the results is correct
+            second = new Second(epochSecond);
+            if (epochSecond > current.epochSecond)
+            {
+                current = second;
+            }
+        }
+        char[] out = new char[TIMESTAMP_LENGTH];
+        System.arraycopy(second.prefix, 0, out, 0, SECOND_LENGTH);
+        int micros = instant.getNano() / 1000;
+        for (int i = TIMESTAMP_LENGTH - 2; i >= SECOND_LENGTH; i--)
+        {
+            out[i] = (char) ('0' + micros % 10);
+            micros /= 10;
+        }
+        out[TIMESTAMP_LENGTH - 1] = 'Z';
+        return new String(out);
+    }
+
+    private static char[] format(long epochSecond)
+    {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+        char[] out = new char[SECOND_LENGTH];
+        digits(out, 0, time.getYear(), 4);
+        out[4] = '-';
+        digits(out, 5, time.getMonthValue(), 2);
+        out[7] = '-';
+        digits(out, 8, time.getDayOfMonth(), 2);
+        out[10] = 'T';
+        digits(out, 11, time.getHour(), 2);
+        out[13] = ':';
+        digits(out, 14, time.getMinute(), 2);
+        out[16] = ':';
+        digits(out, 17, time.getSecond(), 2);
+        out[19] = '.';
+        return out;
+    }
+
+    private static void digits(char[] out, int pos, int value, int width)
+    {
+        for (int i = pos + width - 1; i >= pos; i--)
+        {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
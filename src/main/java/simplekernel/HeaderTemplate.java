@@ -0,0 +1,121 @@
+package simplekernel;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pre-serialized JSON for the parts of a kernel {@link Header} that never change within a session.
+ * Rendering a header only splices in msg_id, date and msg_type, and keeps Jackson's field order so the output
+ * is identical to what the ObjectMapper would write.
+ */
+class HeaderTemplate
+{
+    static final String USERNAME = "kernel";
+    static final String VERSION = "5.0";
+
+    private static final int MAX_SESSIONS = 1024;
+    private static final ConcurrentMap<String, HeaderTemplate> TEMPLATES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, byte[]> MESSAGE_TYPES = new ConcurrentHashMap<>();
+
+    private static final byte[] PREFIX = ascii("{\"msg_id\":\"");
+    private static final byte[] BEFORE_TYPE = ascii("\",\"msg_type\":");
+    private static final byte[] SUFFIX = ascii(",\"version\":" + quote(VERSION) + "}");
+
+    // ","username":"kernel","session":"<session>","date":"
+    private final byte[] beforeDate;
+
+    private HeaderTemplate(String session)
+    {
+        beforeDate = ascii("\",\"username\":" + quote(USERNAME) + ",\"session\":" + quote(session) + ",\"date\":\"");
+    }
+
+    static HeaderTemplate forSession(String session)
+    {
+        HeaderTemplate template = TEMPLATES.get(session);
+        if (template == null)
+        {
+            if (TEMPLATES.size() >= MAX_SESSIONS)
+            {
+                TEMPLATES.clear();
+            }
+            template = new HeaderTemplate(session);
+            TEMPLATES.put(session, template);
+        }
+        return template;
+    }
+
+    /**
+     * Render a header, or return null if a field cannot be spliced in verbatim and the caller should fall back
+     * to the ObjectMapper.
+     */
+    byte[] render(String msgId, String date, String msgType)
+    {
+        if (!isPlain(msgId) || !isPlain(date) || msgType == null)
+        {
+            return null;
+        }
+        byte[] type = MESSAGE_TYPES.get(msgType);
+        if (type == null)
+        {
+            type = quote(msgType).getBytes(StandardCharsets.UTF_8);
+            MESSAGE_TYPES.put(msgType, type);
+        }
+        int length = PREFIX.length + msgId.length() + beforeDate.length + date.length()
+                + BEFORE_TYPE.length + type.length + SUFFIX.length;
+        byte[] out = new byte[length];
+        int pos = put(out, 0, PREFIX);
+        pos = putAscii(out, pos, msgId);
+        pos = put(out, pos, beforeDate);
+        pos = putAscii(out, pos, date);
+        pos = put(out, pos, BEFORE_TYPE);
+        pos = put(out, pos, type);
+        put(out, pos, SUFFIX);
+        return out;
+    }
+
+    private static int put(byte[] out, int pos, byte[] bytes)
+    {
+        System.arraycopy(bytes, 0, out, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static int putAscii(byte[] out, int pos, String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            out[pos++] = (byte) value.charAt(i);
+        }
+        return pos;
+    }
+
+    // Printable ASCII that needs no JSON escaping
+    private static boolean isPlain(String value)
+    {
+        if (value == null)
+        {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '"' || c == '\\')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String quote(String value)
+    {
+        return "\"" + new String(JsonStringEncoder.getInstance().quoteAsString(value)) + "\"";
+    }
+
+    private static byte[] ascii(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,144 @@
+package simplekernel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, cheap enough to record on every message.
+ *
+ * Buckets are log-linear: each power of two is split into eight, so a reported percentile is within 12.5% of the
+ * true value whatever the magnitude, from microsecond replies to minute-long cells, in a fixed 4 KiB of counters.
+ */
+public class Histogram
+{
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Count, mean, percentiles and maximum, in the unit the values were recorded in.
+     */
+    public static class Summary
+    {
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long max;
+
+        Summary(long count, double mean, long p50, long p90, long p99, long max)
+        {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public double getMean()
+        {
+            return mean;
+        }
+
+        public long getP50()
+        {
+            return p50;
+        }
+
+        public long getP90()
+        {
+            return p90;
+        }
+
+        public long getP99()
+        {
+            return p99;
+        }
+
+        public long getMax()
+        {
+            return max;
+        }
+    }
+
+    void record(long value)
+    {
+        long v = Math.max(0, value);
+        buckets.incrementAndGet(index(v));
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    static int index(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (msb - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * The largest value that falls into a bucket.
+     */
+    static long upperBound(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        int msb = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (msb - SUB_BITS)) - 1;
+    }
+
+    /**
+     * A snapshot; taken while values are being recorded it may be off by the few values that arrive meanwhile.
+     */
+    Summary summary()
+    {
+        long[] counts = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long largest = max.get();
+        return new Summary(total, total == 0 ? 0 : (double) sum.sum() / total,
+                percentile(counts, total, 0.5, largest), percentile(counts, total, 0.9, largest),
+                percentile(counts, total, 0.99, largest), largest);
+    }
+
+    private static long percentile(long[] counts, long total, double quantile, long largest)
+    {
+        if (total == 0)
+        {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                return Math.min(upperBound(i), largest);
+            }
+        }
+        return largest;
+    }
+}
@@ -0,0 +1,522 @@
+package simplekernel;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Every executed cell, kept on disk for history_request.
+ *
+ * Append-only files, the shared ones read through memory maps so only the records a request touches are paged in:
+ * <ul>
+ *     <li>{@code cells.log}: the cells, each {@code length, session, execution count, time, UTF-8 text}</li>
+ *     <li>{@code cells.idx}: 16 bytes per cell, {@code offset in cells.log, session, execution count}</li>
+ *     <li>{@code sessions.idx}: 4 bytes per session, the number of cells it wrote</li>
+ *     <li>{@code sessions/<n>.idx}: 12 bytes per cell of session n, {@code offset in cells.log, execution
+ *     count}</li>
+ * </ul>
+ * Sessions are numbered from 1 as IPython numbers them, one per client session.  A tail reads just the last
+ * entries of the index and a range binary searches the session's own index, so neither slows down as the history
+ * or the number of sessions grows; a search reads cells newest first until it has enough.
+ *
+ * Appends are queued and written in batches by one thread per store, which also answers the requests, so a
+ * request sees every cell queued before it.  Several kernel processes may share a directory: writes happen under
+ * a file lock and each batch re-reads where the files end.
+ */
+class HistoryStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HistoryStore.class);
+    private static final ConcurrentMap<String, HistoryStore> STORES = new ConcurrentHashMap<>();
+
+    // Files are mapped in segments of this size; a cell never crosses a segment boundary
+    private static final int SEGMENT = 64 * 1024 * 1024;
+    private static final int RECORD_HEADER = 20;
+    private static final int CELL_ENTRY = 16;
+    private static final int SESSION_ENTRY = 4;
+    private static final int SESSION_CELL_ENTRY = 12;
+    private static final int MAX_BATCH = 1024;
+
+    interface Reply
+    {
+        void send(List<Object> history) throws Exception;
+    }
+
+    private static final class Cell
+    {
+        final AtomicInteger session;
+        final int executionCount;
+        final long time;
+        final String code;
+
+        Cell(AtomicInteger session, int executionCount, String code)
+        {
+            this.session = session;
+            this.executionCount = executionCount;
+            this.time = System.currentTimeMillis();
+            this.code = code;
+        }
+    }
+
+    /**
+     * A file read through read-only maps of its segments.  The last segment is mapped again once the file has
+     * grown past it.
+     */
+    private static final class MappedFile
+    {
+        final FileChannel channel;
+        private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+        MappedFile(File file) throws IOException
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+
+        ByteBuffer slice(long position, int length) throws IOException
+        {
+            int index = (int) (position / SEGMENT);
+            long start = (long) index * SEGMENT;
+            while (segments.size() <= index)
+            {
+                segments.add(null);
+            }
+            MappedByteBuffer segment = segments.get(index);
+            if (segment == null || segment.capacity() < position + length - start)
+            {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, channel.size() - start));
+                segments.set(index, segment);
+            }
+            ByteBuffer slice = segment.duplicate();
+            slice.position((int) (position - start));
+            slice.limit((int) (position - start) + length);
+            return slice.slice();
+        }
+    }
+
+    private final MappedFile log;
+    private final MappedFile cells;
+    private final MappedFile sessions;
+    private final File sessionDir;
+    private final Queue<Cell> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(r ->
+    {
+        Thread t = OutputRouter.unroutedThread(r, "kernel-history");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private HistoryStore(File dir) throws IOException
+    {
+        FileUtils.forceMkdir(dir);
+        log = new MappedFile(new File(dir, "cells.log"));
+        cells = new MappedFile(new File(dir, "cells.idx"));
+        sessions = new MappedFile(new File(dir, "sessions.idx"));
+        sessionDir = new File(dir, "sessions");
+        FileUtils.forceMkdir(sessionDir);
+    }
+
+    /**
+     * The store for the configured directory, shared by every kernel in the JVM; null if history is turned off
+     * or the directory cannot be used.
+     */
+    static HistoryStore open(Settings settings)
+    {
+        if (settings.historyDir == null || settings.historyDir.isEmpty())
+        {
+            return null;
+        }
+        File dir = new File(settings.historyDir).getAbsoluteFile();
+        return STORES.computeIfAbsent(dir.getPath(), path ->
+        {
+            try
+            {
+                return new HistoryStore(dir);
+            }
+            catch (IOException ex)
+            {
+                LOG.warn("Cannot keep history in " + dir, ex);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queue a cell to be written.
+     *
+     * @param session the client session's history number, assigned when its first cell is written
+     */
+    void append(AtomicInteger session, int executionCount, String code)
+    {
+        pending.add(new Cell(session, executionCount, code));
+        if (flushScheduled.compareAndSet(false, true))
+        {
+            thread.execute(this::flush);
+        }
+    }
+
+    /**
+     * Answer a history_request on the store's thread.
+     *
+     * @param current the requesting client session's history number, for the relative session numbers of range
+     */
+    void request(Map<String, Object> content, AtomicInteger current, Reply reply)
+    {
+        thread.execute(() ->
+        {
+            List<Object> history = Collections.emptyList();
+            try
+            {
+                history = query(content, current);
+            }
+            catch (Exception ex)
+            {
+                LOG.warn("Failed to read history", ex);
+            }
+            try
+            {
+                reply.send(history);
+            }
+            catch (Exception ex)
+            {
+                LOG.error("Failed to send history_reply", ex);
+            }
+        });
+    }
+
+    /**
+     * Wait for queued cells to be written, for when the kernel is shutting down.
+     */
+    void sync()
+    {
+        try
+        {
+            thread.submit(() -> null).get(5, TimeUnit.SECONDS);
+        }
+        catch (Exception ex)
+        {
+            LOG.warn("History was not written before shutdown", ex);
+        }
+    }
+
+    private void flush()
+    {
+        flushScheduled.set(false);
+        List<Cell> batch = new ArrayList<>();
+        for (Cell cell = pending.poll(); cell != null; cell = pending.poll())
+        {
+            batch.add(cell);
+            if (batch.size() == MAX_BATCH || pending.isEmpty())
+            {
+                try
+                {
+                    write(batch);
+                }
+                catch (IOException ex)
+                {
+                    LOG.warn("Failed to write " + batch.size() + " cells to history", ex);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Cell> batch) throws IOException
+    {
+        // Held across the log, cell and session indexes, so kernels sharing the store append one batch at a time
+        FileLock lock = cells.channel.lock();
+        try
+        {
+            long logEnd = log.channel.size();
+            int sessionCount = (int) (sessions.channel.size() / SESSION_ENTRY);
+            ByteBuffer index = ByteBuffer.allocate(batch.size() * CELL_ENTRY);
+            long[] offsets = new long[batch.size()];
+            // Session number to its number of cells in this batch, in order of first appearance
+            Map<Integer, Integer> written = new LinkedHashMap<>();
+            for (int i = 0; i < batch.size(); i++)
+            {
+                Cell cell = batch.get(i);
+                if (cell.session.get() == 0)
+                {
+                    cell.session.set(++sessionCount);
+                }
+                byte[] text = cell.code.getBytes(StandardCharsets.UTF_8);
+                if (text.length > SEGMENT - RECORD_HEADER)
+                {
+                    text = Arrays.copyOf(text, SEGMENT - RECORD_HEADER);
+                }
+                int size = RECORD_HEADER + text.length;
+                if (logEnd % SEGMENT + size > SEGMENT)
+                {
+                    logEnd += SEGMENT - logEnd % SEGMENT;
+                }
+                ByteBuffer record = ByteBuffer.allocate(size);
+                record.putInt(text.length).putInt(cell.session.get()).putInt(cell.executionCount).putLong(cell.time)
+                        .put(text);
+                record.flip();
+                writeFully(log.channel, record, logEnd);
+                index.putLong(logEnd).putInt(cell.session.get()).putInt(cell.executionCount);
+                offsets[i] = logEnd;
+                logEnd += size;
+                written.merge(cell.session.get(), 1, Integer::sum);
+            }
+            index.flip();
+            writeFully(cells.channel, index, cells.channel.size());
+
+            long knownSessions = sessions.channel.size() / SESSION_ENTRY;
+            for (Map.Entry<Integer, Integer> entry : written.entrySet())
+            {
+                int session = entry.getKey();
+                int before = session > knownSessions ? 0 : sessionCells(session);
+                ByteBuffer entries = ByteBuffer.allocate(entry.getValue() * SESSION_CELL_ENTRY);
+                for (int i = 0; i < batch.size(); i++)
+                {
+                    if (batch.get(i).session.get() == session)
+                    {
+                        entries.putLong(offsets[i]).putInt(batch.get(i).executionCount);
+                    }
+                }
+                entries.flip();
+                try (FileChannel sessionIndex = FileChannel.open(sessionFile(session).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+                {
+                    writeFully(sessionIndex, entries, (long) before * SESSION_CELL_ENTRY);
+                }
+                // The count goes last, so readers only see entries that are all there
+                ByteBuffer count = ByteBuffer.allocate(SESSION_ENTRY);
+                count.putInt(before + entry.getValue()).flip();
+                writeFully(sessions.channel, count, (long) (session - 1) * SESSION_ENTRY);
+            }
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    private File sessionFile(int session)
+    {
+        return new File(sessionDir, session + ".idx");
+    }
+
+    // The number of cells a session has written, as far as sessions.idx says
+    private int sessionCells(int session) throws IOException
+    {
+        return sessions.slice((long) (session - 1) * SESSION_ENTRY, SESSION_ENTRY).getInt();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private List<Object> query(Map<String, Object> content, AtomicInteger current) throws IOException
+    {
+        String access = String.valueOf(content.getOrDefault("hist_access_type", "tail"));
+        boolean output = Boolean.TRUE.equals(content.get("output"));
+        boolean unique = Boolean.TRUE.equals(content.get("unique"));
+        int n = intValue(content.get("n"), 0);
+        if (access.equals("range"))
+        {
+            int session = intValue(content.get("session"), 0);
+            if (session <= 0)
+            {
+                // 0 is the requesting session and negative numbers count back from it
+                int number = current.get() != 0 ? current.get() : sessionCount() + 1;
+                session += number;
+            }
+            return range(session, intValue(content.get("start"), 1), intValue(content.get("stop"), Integer.MAX_VALUE),
+                    output);
+        }
+        if (access.equals("search"))
+        {
+            String pattern = content.get("pattern") == null ? "*" : content.get("pattern").toString();
+            return search(glob(pattern), n <= 0 ? Integer.MAX_VALUE : n, unique, output);
+        }
+        return search(null, n <= 0 ? 10 : n, unique, output);
+    }
+
+    private int sessionCount() throws IOException
+    {
+        return (int) (sessions.channel.size() / SESSION_ENTRY);
+    }
+
+    /**
+     * Cells of one session with start <= execution count < stop, read from that session's index.
+     */
+    private List<Object> range(int session, int start, int stop, boolean output) throws IOException
+    {
+        List<Object> history = new ArrayList<>();
+        if (session < 1 || session > sessionCount())
+        {
+            return history;
+        }
+        int size = sessionCells(session);
+        try (FileChannel index = FileChannel.open(sessionFile(session).toPath(), StandardOpenOption.READ))
+        {
+            for (int i = firstAtLeast(index, size, start); i < size; i++)
+            {
+                ByteBuffer entry = readFully(index, (long) i * SESSION_CELL_ENTRY, SESSION_CELL_ENTRY);
+                long offset = entry.getLong();
+                int count = entry.getInt();
+                if (count >= stop)
+                {
+                    break;
+                }
+                history.add(entry(session, count, readText(offset), output));
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Binary search a session's index, whose execution counts only grow, for its first cell with at least the
+     * given count.
+     */
+    private static int firstAtLeast(FileChannel index, int size, int count) throws IOException
+    {
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (readFully(index, (long) mid * SESSION_CELL_ENTRY + 8, 4).getInt() < count)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("History index ends early at " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * The newest cells, at most limit of them and only those matching the pattern if there is one, oldest first.
+     */
+    private List<Object> search(Pattern pattern, int limit, boolean unique, boolean output) throws IOException
+    {
+        List<Object> history = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        int count = (int) (cells.channel.size() / CELL_ENTRY);
+        for (int i = count - 1; i >= 0 && history.size() < limit; i--)
+        {
+            ByteBuffer entry = cells.slice((long) i * CELL_ENTRY, CELL_ENTRY);
+            long offset = entry.getLong();
+            int session = entry.getInt();
+            int executionCount = entry.getInt();
+            String text = readText(offset);
+            if ((pattern == null || pattern.matcher(text).matches()) && (!unique || seen.add(text)))
+            {
+                history.add(entry(session, executionCount, text, output));
+            }
+        }
+        Collections.reverse(history);
+        return history;
+    }
+
+    private String readText(long offset) throws IOException
+    {
+        int length = log.slice(offset, RECORD_HEADER).getInt();
+        return StandardCharsets.UTF_8.decode(log.slice(offset + RECORD_HEADER, length)).toString();
+    }
+
+    // [session, line, input], or [session, line, [input, output]] when outputs are asked for; outputs are not kept
+    private static List<Object> entry(int session, int executionCount, String text, boolean output)
+    {
+        return Arrays.asList(session, executionCount, output ? Arrays.asList(text, null) : text);
+    }
+
+    private static int intValue(Object value, int defaultValue)
+    {
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    /**
+     * A pattern for a glob as IPython's history search takes it: * and ? wildcards and [...] character classes,
+     * negated by a leading !, with a ] right after the opening bracket (or the !) taken literally.
+     */
+    static Pattern glob(String glob)
+    {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++)
+        {
+            char c = glob.charAt(i);
+            boolean negated = c == '[' && i + 1 < glob.length() && glob.charAt(i + 1) == '!';
+            int close = c == '[' ? glob.indexOf(']', i + (negated ? 3 : 2)) : -1;
+            if (c == '*')
+            {
+                regex.append(".*");
+            }
+            else if (c == '?')
+            {
+                regex.append('.');
+            }
+            else if (close > 0)
+            {
+                regex.append(negated ? "[^" : "[");
+                for (char member : glob.substring(i + (negated ? 2 : 1), close).toCharArray())
+                {
+                    // Characters a Java class would read as syntax rather than as themselves
+                    if ("\\[]&^".indexOf(member) >= 0)
+                    {
+                        regex.append('\\');
+                    }
+                    regex.append(member);
+                }
+                regex.append(']');
+                i = close;
+            }
+            else
+            {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
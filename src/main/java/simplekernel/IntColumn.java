@@ -0,0 +1,153 @@
+package simplekernel;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.BitSet;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 32-bit integers, summed as longs so a sum does not overflow.
+ */
+public class IntColumn extends NumericColumn
+{
+    static final int WIDTH = Integer.BYTES;
+
+    private final IntBuffer values;
+
+    IntColumn(ByteBuffer data, int length)
+    {
+        super(data, length);
+        values = data.asIntBuffer();
+    }
+
+    public static IntColumn allocate(int length)
+    {
+        return new IntColumn(allocate(length, WIDTH), length);
+    }
+
+    /**
+     * A column over a file of little-endian ints, sized to {@code length}, or to the file when it is negative.
+     */
+    public static IntColumn mapped(String path, int length) throws IOException
+    {
+        ByteBuffer data = map(path, length, WIDTH);
+        return new IntColumn(data, data.capacity() / WIDTH);
+    }
+
+    public static IntColumn of(int[] values)
+    {
+        IntColumn column = allocate(values.length);
+        column.values.put(values, 0, values.length);
+        return column;
+    }
+
+    public static IntColumn generate(int length, IntUnaryOperator value)
+    {
+        IntColumn column = allocate(length);
+        for (int i = 0; i < length; i++)
+        {
+            column.values.put(i, value.applyAsInt(i));
+        }
+        return column;
+    }
+
+    @Override
+    public String getType()
+    {
+        return "int";
+    }
+
+    public int get(int row)
+    {
+        return values.get(row);
+    }
+
+    public void set(int row, int value)
+    {
+        values.put(row, value);
+    }
+
+    @Override
+    public double getDouble(int row)
+    {
+        return values.get(row);
+    }
+
+    public IntColumn map(IntUnaryOperator operator)
+    {
+        IntColumn result = allocate(length);
+        for (int i = 0; i < length; i++)
+        {
+            result.values.put(i, operator.applyAsInt(values.get(i)));
+        }
+        return result;
+    }
+
+    @Override
+    public double sum()
+    {
+        long sum = 0;
+        for (int i = 0; i < length; i++)
+        {
+            sum += values.get(i);
+        }
+        return sum;
+    }
+
+    @Override
+    public double min()
+    {
+        if (length == 0)
+        {
+            return Double.NaN;
+        }
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < length; i++)
+        {
+            min = Math.min(min, values.get(i));
+        }
+        return min;
+    }
+
+    @Override
+    public double max()
+    {
+        if (length == 0)
+        {
+            return Double.NaN;
+        }
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < length; i++)
+        {
+            max = Math.max(max, values.get(i));
+        }
+        return max;
+    }
+
+    @Override
+    public IntColumn filter(BitSet rows)
+    {
+        IntColumn result = allocate(count(rows, length));
+        int out = 0;
+        for (int i = rows.nextSetBit(0); i >= 0 && i < length; i = rows.nextSetBit(i + 1))
+        {
+            result.values.put(out++, values.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    String format(int row)
+    {
+        return Integer.toString(values.get(row));
+    }
+
+    @Override
+    void writeValue(JsonGenerator gen, int row) throws IOException
+    {
+        gen.writeNumber(values.get(row));
+    }
+}
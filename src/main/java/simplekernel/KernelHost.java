@@ -0,0 +1,320 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs kernels inside one long-lived JVM, so starting a kernel does not pay for JVM start-up, Nashorn
+ * initialisation, extension loading and JIT warm-up each time.  All kernels share one {@link ScriptRuntime}, and
+ * with it the compiled extensions, the compiled-cell cache and the code the JIT has produced for them.
+ *
+ * Jupyter starts a {@link KernelLauncher} as usual, which connects to the host on a loopback port.  The token is
+ * random per host and kept in a file only the host's user can read, and each side proves it knows the token
+ * without sending it: the launcher writes a nonce, the host answers with a nonce of its own and an HMAC of the
+ * launcher's, and only once that checks out does the launcher answer with an HMAC of the host's nonce and the path
+ * of its connection file, each on one line.  So other users on the machine, who can also reach the port, cannot
+ * have the host run code for them, and a process of theirs listening on the port first never sees a token or a
+ * connection file; connection files must belong to the host's user too.  The host answers {@code started} or
+ * {@code error: <reason>}, runs a kernel on its own threads and sockets, and keeps the connection open for as long
+ * as the kernel runs: it closes the connection when the kernel shuts down, which ends the launcher, and stops the
+ * kernel if the launcher goes away first, for instance because Jupyter killed it.
+ */
+public class KernelHost
+{
+    private static final Logger LOG = LoggerFactory.getLogger(KernelHost.class);
+    private static final int TOKEN_BYTES = 32;
+    private static final int NONCE_BYTES = 16;
+    private static final String PROOF_ALGORITHM = "HmacSHA256";
+    // Bound into each proof, so one side's answer cannot be replayed as the other's
+    static final String HOST_ROLE = "host";
+    static final String LAUNCHER_ROLE = "launcher";
+    static final int HANDSHAKE_MILLIS = 5000;
+
+    private final Settings settings;
+    private final ScriptRuntime runtime;
+    private final AtomicInteger kernelCount = new AtomicInteger();
+
+    public KernelHost(Settings settings, ScriptRuntime runtime)
+    {
+        this.settings = settings;
+        this.runtime = runtime;
+    }
+
+    /**
+     * Where the host listening on {@code kernel.hostPort} keeps its token.
+     */
+    static Path tokenFile(Settings settings)
+    {
+        return Paths.get(settings.hostTokenDir, "host-" + settings.hostPort + ".token");
+    }
+
+    /**
+     * Accept launchers until the thread is interrupted or the socket fails.
+     */
+    public void serve() throws IOException
+    {
+        Path tokenFile = tokenFile(settings);
+        try (ServerSocket server = new ServerSocket(settings.hostPort, 50, InetAddress.getLoopbackAddress()))
+        {
+            byte[] token = writeToken(tokenFile);
+            // Also when the host is killed rather than interrupted
+            tokenFile.toFile().deleteOnExit();
+            UserPrincipal owner = Files.getOwner(tokenFile);
+            LOG.info("Kernel host listening on port " + server.getLocalPort() + ", token in " + tokenFile);
+            while (!Thread.currentThread().isInterrupted())
+            {
+                Socket connection = server.accept();
+                Thread thread = new Thread(() -> serve(connection, token, owner),
+                        "kernel-host-" + kernelCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(tokenFile);
+        }
+    }
+
+    /**
+     * A fresh random token, written to a file that only this user can read.  The file is created with those
+     * permissions under a temporary name and moved into place, so it is never readable by anyone else.
+     */
+    private static byte[] writeToken(Path tokenFile) throws IOException
+    {
+        byte[] token = random(TOKEN_BYTES).getBytes(StandardCharsets.UTF_8);
+        Files.createDirectories(tokenFile.getParent());
+        Path temp;
+        try
+        {
+            temp = Files.createTempFile(tokenFile.getParent(), "host-", ".token",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // Not a POSIX file system: restrict the file as far as java.io allows before writing the token
+            temp = Files.createTempFile(tokenFile.getParent(), "host-", ".token");
+            File file = temp.toFile();
+            if (!(file.setReadable(false, false) && file.setReadable(true, true)
+                    && file.setWritable(false, false) && file.setWritable(true, true)))
+            {
+                Files.delete(temp);
+                throw new IOException("Cannot make " + temp + " private to its owner");
+            }
+        }
+        Files.write(temp, token);
+        Files.move(temp, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return token;
+    }
+
+    // Random bytes as lowercase hex
+    private static String random(int bytes)
+    {
+        byte[] random = new byte[bytes];
+        new SecureRandom().nextBytes(random);
+        return hex(random);
+    }
+
+    private static String hex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes)
+        {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A fresh nonce for the handshake.
+     */
+    static String nonce()
+    {
+        return random(NONCE_BYTES);
+    }
+
+    /**
+     * What the side in the given role answers to the other side's nonce: an HMAC of both, keyed with the token.
+     */
+    static String proof(byte[] token, String role, String nonce) throws GeneralSecurityException
+    {
+        Mac mac = Mac.getInstance(PROOF_ALGORITHM);
+        mac.init(new SecretKeySpec(token, PROOF_ALGORITHM));
+        return hex(mac.doFinal((role + ":" + nonce).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Whether a line received is the proof expected, compared in constant time.
+     */
+    static boolean verify(String line, byte[] token, String role, String nonce) throws GeneralSecurityException
+    {
+        return line != null && MessageDigest.isEqual(line.getBytes(StandardCharsets.UTF_8),
+                proof(token, role, nonce).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void serve(Socket connection, byte[] token, UserPrincipal owner)
+    {
+        SimpleKernel kernel = null;
+        Thread kernelThread = null;
+        try (Socket launcher = connection;
+             BufferedReader in = new BufferedReader(new InputStreamReader(launcher.getInputStream(),
+                     StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(launcher.getOutputStream(), StandardCharsets.UTF_8))
+        {
+            // A launcher answers at once; anything slower is not one
+            launcher.setSoTimeout(HANDSHAKE_MILLIS);
+            String launcherNonce = in.readLine();
+            if (launcherNonce == null)
+            {
+                return;
+            }
+            String hostNonce = nonce();
+            out.write(hostNonce + "\n");
+            out.write(proof(token, HOST_ROLE, launcherNonce) + "\n");
+            out.flush();
+            if (!verify(in.readLine(), token, LAUNCHER_ROLE, hostNonce))
+            {
+                LOG.warn("Refusing a launcher connection without the host token");
+                out.write("error: not authorized\n");
+                out.flush();
+                return;
+            }
+            String connectionFile = in.readLine();
+            if (connectionFile == null)
+            {
+                return;
+            }
+            launcher.setSoTimeout(0);
+            try
+            {
+                Path path = Paths.get(connectionFile);
+                if (!Files.getOwner(path).equals(owner))
+                {
+                    throw new IOException(connectionFile + " does not belong to " + owner.getName());
+                }
+                Config config = Message.OBJECT_MAPPER.readValue(path.toFile(), Config.class);
+                kernel = new SimpleKernel(config, settings, runtime);
+            }
+            catch (Exception ex)
+            {
+                LOG.error("Failed to start a kernel for " + connectionFile, ex);
+                out.write("error: " + ex + "\n");
+                out.flush();
+                return;
+            }
+            final SimpleKernel started = kernel;
+            kernelThread = new Thread(() ->
+            {
+                try
+                {
+                    started.start(null);
+                }
+                catch (Exception ex)
+                {
+                    LOG.error("Kernel for " + connectionFile + " failed", ex);
+                }
+                finally
+                {
+                    // Lets the launcher exit, and with it the process Jupyter is watching
+                    closeQuietly(launcher);
+                }
+            }, Thread.currentThread().getName() + "-kernel");
+            kernelThread.start();
+            LOG.info("Started kernel for " + connectionFile);
+            out.write("started\n");
+            out.flush();
+            // The launcher never writes again, so this returns when either side closes the connection
+            while (in.read() != -1)
+            {
+            }
+        }
+        catch (IOException ex)
+        {
+            LOG.debug("Launcher connection closed: " + ex.getMessage());
+        }
+        catch (GeneralSecurityException ex)
+        {
+            LOG.error("Cannot check the launcher's token", ex);
+        }
+        finally
+        {
+            if (kernel != null)
+            {
+                kernel.stop();
+                joinQuietly(kernelThread);
+                LOG.info("Kernel on " + Thread.currentThread().getName() + " finished");
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException ex)
+        {
+            LOG.debug("Failed to close launcher connection", ex);
+        }
+    }
+
+    private static void joinQuietly(Thread thread)
+    {
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Usage: {@code KernelHost [extensions.list]}; the port is the {@code kernel.hostPort} setting.
+     */
+    public static void main(String[] args)
+    {
+        try
+        {
+            Settings settings = new Settings();
+            ScriptRuntime runtime = new ScriptRuntime(settings);
+            if (args.length > 0)
+            {
+                runtime.loadExtensions(args[0]);
+            }
+            // Initialise Nashorn's globals and run the extensions once before the first kernel needs them
+            runtime.createScriptContext("warm-up", Collections.emptyMap());
+            new KernelHost(settings, runtime).serve();
+        }
+        catch (Exception ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+
+/**
+ * What Jupyter starts when kernels run in a {@link KernelHost}: hands the connection file to the host and stays
+ * alive exactly as long as the kernel does, so Jupyter can watch and kill it like any kernel process.  With no host
+ * listening it runs the kernel itself, taking the same arguments as {@link SimpleKernel}.
+ */
+public class KernelLauncher
+{
+    private static final Logger LOG = LoggerFactory.getLogger(KernelLauncher.class);
+
+    public static void main(String[] args) throws IOException, GeneralSecurityException
+    {
+        String connectionFile = new File(args[0]).getAbsolutePath();
+        Settings settings = new Settings();
+        Socket host;
+        byte[] token;
+        try
+        {
+            host = new Socket(InetAddress.getLoopbackAddress(), settings.hostPort);
+        }
+        catch (ConnectException ex)
+        {
+            LOG.info("No kernel host on port " + settings.hostPort + ", running the kernel in this process");
+            SimpleKernel.main(args);
+            return;
+        }
+        try
+        {
+            token = new String(Files.readAllBytes(KernelHost.tokenFile(settings)), StandardCharsets.UTF_8).trim()
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        catch (IOException ex)
+        {
+            // Whatever listens on the port is not a host of this user's, so it must not get the connection file
+            host.close();
+            LOG.info("No token for the kernel host on port " + settings.hostPort + " (" + ex
+                    + "), running the kernel in this process");
+            SimpleKernel.main(args);
+            return;
+        }
+        boolean verified;
+        try (Socket connection = host;
+             BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                     StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))
+        {
+            // The host proves it knows the token before it is sent anything that matters
+            String launcherNonce = KernelHost.nonce();
+            out.write(launcherNonce + "\n");
+            out.flush();
+            String hostNonce;
+            String hostProof;
+            connection.setSoTimeout(KernelHost.HANDSHAKE_MILLIS);
+            try
+            {
+                hostNonce = in.readLine();
+                hostProof = in.readLine();
+            }
+            catch (SocketTimeoutException ex)
+            {
+                hostNonce = null;
+                hostProof = null;
+            }
+            connection.setSoTimeout(0);
+            verified = hostNonce != null && KernelHost.verify(hostProof, token, KernelHost.HOST_ROLE, launcherNonce);
+            if (verified)
+            {
+                out.write(KernelHost.proof(token, KernelHost.LAUNCHER_ROLE, hostNonce) + "\n");
+                out.write(connectionFile + "\n");
+                out.flush();
+                String status = in.readLine();
+                if (!"started".equals(status))
+                {
+                    LOG.error("Kernel host could not start the kernel: " + status);
+                    System.exit(1);
+                }
+                // Blocks until the host closes the connection when the kernel shuts down
+                while (in.read() != -1)
+                {
+                }
+            }
+        }
+        if (!verified)
+        {
+            LOG.warn("Whatever listens on port " + settings.hostPort + " does not know the host token, running the"
+                    + " kernel in this process");
+            SimpleKernel.main(args);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Instrumentation for one kernel: enough to tell whether a slow notebook is waiting on user code, Jackson, HMAC or
+ * ZeroMQ.  Recording is lock-free; the numbers are read through JMX or a {@code kernel_metrics_request} on the
+ * shell channel.
+ */
+public class KernelMetrics implements KernelMetricsMXBean
+{
+    private static final Logger LOG = LoggerFactory.getLogger(KernelMetrics.class);
+
+    final Histogram evalTime = new Histogram();
+    final Histogram renderTime = new Histogram();
+    final Histogram serializeTime = new Histogram();
+    final Histogram signTime = new Histogram();
+    final Histogram iopubSendTime = new Histogram();
+    final Histogram streamMessagesPerCell = new Histogram();
+    final Histogram heartbeatEchoTime = new Histogram();
+    final Histogram heartbeatInterval = new Histogram();
+    private final Map<String, Histogram> requestLatency = new ConcurrentHashMap<>();
+    private final LongAdder iopubMessages = new LongAdder();
+    private final LongAdder iopubBytes = new LongAdder();
+    private volatile IntSupplier outboxQueueDepth = () -> 0;
+    private volatile IntSupplier executionQueueDepth = () -> 0;
+    private volatile IntSupplier sessions = () -> 0;
+    private long lastHeartbeat;
+    private ObjectName objectName;
+
+    static long micros(long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Record the time since {@code startNanos}, in microseconds.
+     */
+    static void recordSince(Histogram histogram, long startNanos)
+    {
+        histogram.record(micros(System.nanoTime() - startNanos));
+    }
+
+    void gauges(IntSupplier outboxQueueDepth, IntSupplier executionQueueDepth, IntSupplier sessions)
+    {
+        this.outboxQueueDepth = outboxQueueDepth;
+        this.executionQueueDepth = executionQueueDepth;
+        this.sessions = sessions;
+    }
+
+    void requestCompleted(String msgType, long receivedNanos)
+    {
+        recordSince(requestLatency.computeIfAbsent(msgType, t -> new Histogram()), receivedNanos);
+    }
+
+    void iopubSent(int bytes, long startNanos)
+    {
+        recordSince(iopubSendTime, startNanos);
+        iopubMessages.increment();
+        iopubBytes.add(bytes);
+    }
+
+    /**
+     * Called on the heartbeat thread for every ping it echoes.
+     */
+    void heartbeat(long receivedNanos)
+    {
+        recordSince(heartbeatEchoTime, receivedNanos);
+        if (lastHeartbeat != 0)
+        {
+            heartbeatInterval.record(micros(receivedNanos - lastHeartbeat));
+        }
+        lastHeartbeat = receivedNanos;
+    }
+
+    @Override
+    public Map<String, Histogram.Summary> getRequestLatency()
+    {
+        Map<String, Histogram.Summary> summaries = new TreeMap<>();
+        requestLatency.forEach((type, histogram) -> summaries.put(type, histogram.summary()));
+        return summaries;
+    }
+
+    @Override
+    public Histogram.Summary getEvalTime()
+    {
+        return evalTime.summary();
+    }
+
+    @Override
+    public Histogram.Summary getRenderTime()
+    {
+        return renderTime.summary();
+    }
+
+    @Override
+    public Histogram.Summary getSerializeTime()
+    {
+        return serializeTime.summary();
+    }
+
+    @Override
+    public Histogram.Summary getSignTime()
+    {
+        return signTime.summary();
+    }
+
+    @Override
+    public Histogram.Summary getIopubSendTime()
+    {
+        return iopubSendTime.summary();
+    }
+
+    @Override
+    public Histogram.Summary getStreamMessagesPerCell()
+    {
+        return streamMessagesPerCell.summary();
+    }
+
+    @Override
+    public Histogram.Summary getHeartbeatEchoTime()
+    {
+        return heartbeatEchoTime.summary();
+    }
+
+    @Override
+    public Histogram.Summary getHeartbeatInterval()
+    {
+        return heartbeatInterval.summary();
+    }
+
+    @Override
+    public long getIopubMessages()
+    {
+        return iopubMessages.sum();
+    }
+
+    @Override
+    public long getIopubBytes()
+    {
+        return iopubBytes.sum();
+    }
+
+    @Override
+    public int getOutboxQueueDepth()
+    {
+        return outboxQueueDepth.getAsInt();
+    }
+
+    @Override
+    public int getExecutionQueueDepth()
+    {
+        return executionQueueDepth.getAsInt();
+    }
+
+    @Override
+    public int getSessions()
+    {
+        return sessions.getAsInt();
+    }
+
+    /**
+     * Everything above as plain maps, for the kernel_metrics_reply.
+     */
+    Map<String, Object> snapshot()
+    {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("request_latency_us", getRequestLatency());
+        snapshot.put("eval_time_us", getEvalTime());
+        snapshot.put("render_time_us", getRenderTime());
+        snapshot.put("serialize_time_us", getSerializeTime());
+        snapshot.put("sign_time_us", getSignTime());
+        snapshot.put("iopub_send_time_us", getIopubSendTime());
+        snapshot.put("stream_messages_per_cell", getStreamMessagesPerCell());
+        snapshot.put("heartbeat_echo_time_us", getHeartbeatEchoTime());
+        snapshot.put("heartbeat_interval_us", getHeartbeatInterval());
+        snapshot.put("iopub_messages", getIopubMessages());
+        snapshot.put("iopub_bytes", getIopubBytes());
+        snapshot.put("outbox_queue_depth", getOutboxQueueDepth());
+        snapshot.put("execution_queue_depth", getExecutionQueueDepth());
+        snapshot.put("sessions", getSessions());
+        return snapshot;
+    }
+
+    /**
+     * Publish on the platform MBean server; failures are logged, since metrics are not worth failing a kernel.
+     */
+    void register(String kernelId)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("simplekernel:type=KernelMetrics,kernel=" + ObjectName.quote(kernelId));
+            server.registerMBean(this, objectName);
+        }
+        catch (JMException ex)
+        {
+            LOG.warn("Failed to register kernel metrics with JMX", ex);
+            objectName = null;
+        }
+    }
+
+    void unregister()
+    {
+        if (objectName == null)
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (JMException ex)
+        {
+            LOG.warn("Failed to unregister kernel metrics", ex);
+        }
+        objectName = null;
+    }
+}
@@ -0,0 +1,55 @@
+package simplekernel;
+
+import java.util.Map;
+
+/**
+ * What a kernel reports about itself over JMX.  Times are in microseconds.
+ */
+public interface KernelMetricsMXBean
+{
+    /**
+     * From receiving a request to queueing its reply, by request msg_type.
+     */
+    Map<String, Histogram.Summary> getRequestLatency();
+
+    Histogram.Summary getEvalTime();
+
+    Histogram.Summary getRenderTime();
+
+    /**
+     * Jackson serialization of outgoing messages.
+     */
+    Histogram.Summary getSerializeTime();
+
+    /**
+     * HMAC signing of outgoing messages.
+     */
+    Histogram.Summary getSignTime();
+
+    /**
+     * Writing iopub messages to the ZeroMQ socket.
+     */
+    Histogram.Summary getIopubSendTime();
+
+    Histogram.Summary getStreamMessagesPerCell();
+
+    /**
+     * From receiving a heartbeat to echoing it.
+     */
+    Histogram.Summary getHeartbeatEchoTime();
+
+    /**
+     * Between consecutive heartbeats; a client pings at a fixed rate, so growth here means pings are delayed.
+     */
+    Histogram.Summary getHeartbeatInterval();
+
+    long getIopubMessages();
+
+    long getIopubBytes();
+
+    int getOutboxQueueDepth();
+
+    int getExecutionQueueDepth();
+
+    int getSessions();
+}
@@ -0,0 +1,170 @@
+package simplekernel;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.BitSet;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Longs, e.g. timestamps or ids.  Scripts see them as numbers, so values past 2^53 lose precision there.
+ */
+public class LongColumn extends NumericColumn
+{
+    static final int WIDTH = Long.BYTES;
+
+    private final LongBuffer values;
+
+    LongColumn(ByteBuffer data, int length)
+    {
+        super(data, length);
+        values = data.asLongBuffer();
+    }
+
+    public static LongColumn allocate(int length)
+    {
+        return new LongColumn(allocate(length, WIDTH), length);
+    }
+
+    /**
+     * A column over a file of little-endian longs, sized to {@code length}, or to the file when it is negative.
+     */
+    public static LongColumn mapped(String path, int length) throws IOException
+    {
+        ByteBuffer data = map(path, length, WIDTH);
+        return new LongColumn(data, data.capacity() / WIDTH);
+    }
+
+    public static LongColumn of(long[] values)
+    {
+        LongColumn column = allocate(values.length);
+        column.values.put(values, 0, values.length);
+        return column;
+    }
+
+    public static LongColumn generate(int length, IntToLongFunction value)
+    {
+        LongColumn column = allocate(length);
+        for (int i = 0; i < length; i++)
+        {
+            column.values.put(i, value.applyAsLong(i));
+        }
+        return column;
+    }
+
+    @Override
+    public String getType()
+    {
+        return "long";
+    }
+
+    public long get(int row)
+    {
+        return values.get(row);
+    }
+
+    public void set(int row, long value)
+    {
+        values.put(row, value);
+    }
+
+    @Override
+    public double getDouble(int row)
+    {
+        return values.get(row);
+    }
+
+    public LongColumn map(LongUnaryOperator operator)
+    {
+        LongColumn result = allocate(length);
+        for (int i = 0; i < length; i++)
+        {
+            result.values.put(i, operator.applyAsLong(values.get(i)));
+        }
+        return result;
+    }
+
+    @Override
+    public double sum()
+    {
+        // Exact, so the only rounding is the final one to a double; large longs such as nanosecond timestamps can
+        // overflow a long sum, and the rest is then added as a BigInteger
+        long sum = 0;
+        for (int i = 0; i < length; i++)
+        {
+            long value = values.get(i);
+            try
+            {
+                sum = Math.addExact(sum, value);
+            }
+            catch (ArithmeticException ex)
+            {
+                BigInteger big = BigInteger.valueOf(sum).add(BigInteger.valueOf(value));
+                for (i++; i < length; i++)
+                {
+                    big = big.add(BigInteger.valueOf(values.get(i)));
+                }
+                return big.doubleValue();
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double min()
+    {
+        if (length == 0)
+        {
+            return Double.NaN;
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < length; i++)
+        {
+            min = Math.min(min, values.get(i));
+        }
+        return min;
+    }
+
+    @Override
+    public double max()
+    {
+        if (length == 0)
+        {
+            return Double.NaN;
+        }
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < length; i++)
+        {
+            max = Math.max(max, values.get(i));
+        }
+        return max;
+    }
+
+    @Override
+    public LongColumn filter(BitSet rows)
+    {
+        LongColumn result = allocate(count(rows, length));
+        int out = 0;
+        for (int i = rows.nextSetBit(0); i >= 0 && i < length; i = rows.nextSetBit(i + 1))
+        {
+            result.values.put(out++, values.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    String format(int row)
+    {
+        return Long.toString(values.get(row));
+    }
+
+    @Override
+    void writeValue(JsonGenerator gen, int row) throws IOException
+    {
+        gen.writeNumber(values.get(row));
+    }
+}
@@ -0,0 +1,309 @@
+package simplekernel;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class Message
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger(Message.class);
+    static final byte[] DELIMITER = "<IDS|MSG>".getBytes(StandardCharsets.UTF_8);
+    public Header header;
+    public List<byte[]> identities;
+    // Binary frames after the content, sent and received without any encoding.  Assign a new list rather than
+    // adding to the default one, which is shared and empty.
+    public List<ByteBuffer> buffers = Collections.emptyList();
+
+    // Received frames are kept as-is and only decoded when a handler asks for them
+    byte[] headerBytes;
+    byte[] parentBytes;
+    byte[] metaBytes;
+    byte[] contentBytes;
+
+    private Header parentHeader;
+    private Map<String, Object> metadata;
+    private Map<String, Object> content;
+    // Content given as a bean rather than a map; serialized as-is on send
+    private Object contentValue;
+
+    // For metrics: when a request arrived (or, on a reply, when its request did), and where the last send spent
+    // its time
+    long receivedNanos;
+    long serializeNanos;
+    long signNanos;
+
+    // On a request, whether its handler has reported the kernel busy and not yet idle again
+    volatile boolean busy;
+
+    static final byte[] EMPTY_OBJECT = "{}".getBytes(StandardCharsets.UTF_8);
+
+    public static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectReader HEADER_READER = OBJECT_MAPPER.reader(Header.class);
+    private static final ObjectReader MAP_READER = OBJECT_MAPPER.reader(Map.class);
+    private static final ObjectWriter WRITER = OBJECT_MAPPER.writer();
+    private static final TypeReference<Map<String, Object>> CONTENT_TYPE = new TypeReference<Map<String, Object>>()
+    {
+    };
+
+    public Message()
+    {
+        identities = new ArrayList<>();
+    }
+    public Message(String sessionUUID, String messageType)
+    {
+
+        header = new Header(sessionUUID, messageType);
+        identities = Collections.emptyList();
+    }
+    /**
+     * Create a reply or side-effect message for a parent.  The parent's header frame is reused byte-for-byte,
+     * so every child of the same request shares it without re-serializing.
+     */
+    public Message(Message parent, String messageType)
+    {
+        header = new Header(parent.header.session, messageType);
+        parentHeader = parent.header;
+        parentBytes = parent.headerBytes;
+        receivedNanos = parent.receivedNanos;
+        identities = Collections.emptyList();
+    }
+
+    /**
+     * Serialize a value once, typically a constant payload that is then passed to {@link #setContent(Object)}.
+     */
+    public static byte[] toBytes(Object value) throws IOException
+    {
+        return WRITER.writeValueAsBytes(value);
+    }
+
+    public Header getParentHeader() throws IOException
+    {
+        if (parentHeader == null && parentBytes != null)
+        {
+            parentHeader = HEADER_READER.readValue(parentBytes);
+        }
+        return parentHeader;
+    }
+
+    public Map<String, Object> getMetadata() throws IOException
+    {
+        if (metadata == null)
+        {
+            metadata = metaBytes == null ? new HashMap<>() : MAP_READER.readValue(metaBytes);
+        }
+        return metadata;
+    }
+
+    public Map<String, Object> getContent() throws IOException
+    {
+        if (content == null)
+        {
+            if (contentValue != null)
+            {
+                content = OBJECT_MAPPER.convertValue(contentValue, CONTENT_TYPE);
+                contentValue = null;
+            }
+            else
+            {
+                content = contentBytes == null ? new HashMap<>() : MAP_READER.readValue(contentBytes);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Set the content as a map, a bean for Jackson, or an already serialized byte[] which is sent verbatim.
+     */
+    @SuppressWarnings("unchecked")
+    public void setContent(Object value)
+    {
+        content = null;
+        contentValue = null;
+        contentBytes = null;
+        if (value instanceof byte[])
+        {
+            contentBytes = (byte[]) value;
+        }
+        else if (value instanceof Map)
+        {
+            content = (Map<String, Object>) value;
+        }
+        else
+        {
+            contentValue = value;
+        }
+    }
+
+    /**
+     * Read one multipart message straight off the socket.  Routing identities stay raw byte frames so they can
+     * be echoed back untouched, and only the header is parsed up front; everything else waits until it is used.
+     * Returns null for malformed messages or messages whose signature does not verify.
+     */
+    public static Message recv(Signer signer, ZMQ.Socket socket) throws Exception
+    {
+        Message message = new Message();
+        byte[] frame = socket.recv(0);
+        message.receivedNanos = System.nanoTime();
+        while (!Arrays.equals(frame, DELIMITER))
+        {
+            if (!socket.hasReceiveMore())
+            {
+                LOG.warn("Dropping malformed message without <IDS|MSG> delimiter");
+                return null;
+            }
+            message.identities.add(frame);
+            frame = socket.recv(0);
+        }
+
+        // signature, header, parent header, metadata, content, then any buffers
+        byte[][] parts = new byte[5][];
+        int count = 0;
+        while (socket.hasReceiveMore())
+        {
+            byte[] next = socket.recv(0);
+            if (count < parts.length)
+            {
+                parts[count] = next;
+            }
+            else
+            {
+                if (message.buffers.isEmpty())
+                {
+                    message.buffers = new ArrayList<>();
+                }
+                message.buffers.add(ByteBuffer.wrap(next));
+            }
+            count++;
+        }
+        if (count < parts.length)
+        {
+            LOG.warn("Dropping truncated message with " + count + " frames after the delimiter");
+            return null;
+        }
+
+        // hmac is the lowercase hex digest as UTF-8 and is compared in that form
+        if (!signer.verify(parts[0], parts[1], parts[2], parts[3], parts[4], message.buffers))
+        {
+            LOG.warn("Rejecting message with an invalid signature");
+            return null;
+        }
+        message.headerBytes = parts[1];
+        message.parentBytes = parts[2];
+        message.metaBytes = parts[3];
+        message.contentBytes = parts[4];
+        message.header = HEADER_READER.readValue(message.headerBytes);
+        return message;
+    }
+
+    private void prepare(FrameBuffer frames) throws IOException
+    {
+        frames.set(FrameBuffer.HEADER, header.toBytes());
+        if (parentBytes == null)
+        {
+            parentBytes = parentHeader == null ? EMPTY_OBJECT : parentHeader.toBytes();
+        }
+        frames.set(FrameBuffer.PARENT, parentBytes);
+        if (metadata != null && !metadata.isEmpty())
+        {
+            frames.write(FrameBuffer.METADATA, WRITER, metadata);
+        }
+        else
+        {
+            frames.set(FrameBuffer.METADATA, metadata == null && metaBytes != null ? metaBytes : EMPTY_OBJECT);
+        }
+        if (content != null || contentValue != null)
+        {
+            frames.write(FrameBuffer.CONTENT, WRITER, content != null ? content : contentValue);
+        }
+        else
+        {
+            frames.set(FrameBuffer.CONTENT, contentBytes != null ? contentBytes : EMPTY_OBJECT);
+        }
+    }
+
+    public void send(ZMQ.Socket socket, Signer signer) throws Exception
+    {
+        FrameBuffer frames = FrameBuffer.get();
+        try
+        {
+            long started = System.nanoTime();
+            prepare(frames);
+            long prepared = System.nanoTime();
+            byte[] signature = signer.sign(frames, buffers);
+            serializeNanos = prepared - started;
+            signNanos = System.nanoTime() - prepared;
+
+            for (byte[] identity : identities)
+            {
+                socket.sendMore(identity);
+            }
+            socket.sendMore(DELIMITER);
+            socket.sendMore(signature);
+            frames.send(socket, buffers.isEmpty() ? 0 : ZMQ.SNDMORE);
+            sendBuffers(socket, buffers);
+        }
+        finally
+        {
+            frames.release();
+        }
+    }
+
+    /**
+     * Send buffers as frames that wrap them, so ZeroMQ writes straight from their memory.
+     */
+    static int sendBuffers(ZMQ.Socket socket, List<ByteBuffer> buffers)
+    {
+        int bytes = 0;
+        for (int i = 0; i < buffers.size(); i++)
+        {
+            ByteBuffer buffer = buffers.get(i).slice();
+            bytes += buffer.remaining();
+            socket.sendByteBuffer(buffer, i < buffers.size() - 1 ? ZMQ.SNDMORE : 0);
+        }
+        return bytes;
+    }
+
+    /**
+     * Sign and serialize into standalone frames, for handing the message to the thread that owns the socket.
+     * The buffers are not copied; they go with the frames as they are.
+     */
+    public byte[][] toFrames(Signer signer) throws IOException
+    {
+        FrameBuffer frames = FrameBuffer.get();
+        try
+        {
+            long started = System.nanoTime();
+            prepare(frames);
+            long prepared = System.nanoTime();
+            int prefix = identities.size() + 2;
+            byte[][] out = new byte[prefix + 4][];
+            for (int i = 0; i < identities.size(); i++)
+            {
+                out[i] = identities.get(i);
+            }
+            out[prefix - 2] = DELIMITER;
+            out[prefix - 1] = signer.sign(frames, buffers);
+            serializeNanos = prepared - started;
+            signNanos = System.nanoTime() - prepared;
+            for (int i = FrameBuffer.HEADER; i <= FrameBuffer.CONTENT; i++)
+            {
+                out[prefix + i] = frames.copy(i);
+            }
+            return out;
+        }
+        finally
+        {
+            frames.release();
+        }
+    }
+}
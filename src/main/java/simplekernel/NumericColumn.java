@@ -0,0 +1,51 @@
+package simplekernel;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.function.DoublePredicate;
+
+/**
+ * A column of numbers.  Each type implements the reductions as a loop over its own buffer so the JIT sees a
+ * simple counted loop; the rest works on values widened to double.
+ */
+public abstract class NumericColumn extends Column
+{
+    NumericColumn(ByteBuffer data, int length)
+    {
+        super(data, length);
+    }
+
+    public abstract double getDouble(int row);
+
+    public abstract double sum();
+
+    public abstract double min();
+
+    public abstract double max();
+
+    public double mean()
+    {
+        return length == 0 ? Double.NaN : sum() / length;
+    }
+
+    /**
+     * The rows whose value passes the test, for {@link #filter(BitSet)} on this or any other column of a table.
+     */
+    public BitSet where(DoublePredicate test)
+    {
+        BitSet rows = new BitSet(length);
+        for (int i = 0; i < length; i++)
+        {
+            if (test.test(getDouble(i)))
+            {
+                rows.set(i);
+            }
+        }
+        return rows;
+    }
+
+    public DoubleColumn asDoubles()
+    {
+        return DoubleColumn.generate(length, this::getDouble);
+    }
+}
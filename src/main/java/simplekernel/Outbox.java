@@ -0,0 +1,268 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Routes outgoing messages to the kernel's sockets from any thread.
+ *
+ * ZeroMQ sockets must stay on one thread, and execution threads get interrupted (or stopped) when a cell is
+ * cancelled, which jeromq does not survive.  So only two threads ever touch a socket here: the poll thread, which
+ * owns the ROUTER channels, and a sender thread, which owns iopub.  Everyone else hands fully signed frames to a
+ * queue; the sender publishes iopub traffic itself and passes ROUTER replies to the poll thread over an inproc
+ * PAIR so they go out on the socket that received the request.
+ *
+ * Bulk output is throttled: {@link #sendThrottled} waits while more than a configured number of bytes sent that
+ * way is still queued, which pushes back on the code producing it.  Replies and status messages are never held.
+ */
+class Outbox
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Outbox.class);
+    private static final Outgoing POISON = new Outgoing(-1, null, null, 0);
+
+    static class Outgoing
+    {
+        final int channel;
+        final byte[][] frames;
+        final List<ByteBuffer> buffers;
+        // Throttle permits to give back once sent
+        final int weight;
+
+        Outgoing(int channel, byte[][] frames, List<ByteBuffer> buffers, int weight)
+        {
+            this.channel = channel;
+            this.frames = frames;
+            this.buffers = buffers;
+            this.weight = weight;
+        }
+    }
+
+    private final Signer signer;
+    private final KernelMetrics metrics;
+    private final ZMQ.Socket iopub;
+    private final ZMQ.Socket[] routers;
+    private final ZMQ.Socket forwarder;
+    private final ZMQ.Socket relay;
+    private final BlockingQueue<Outgoing> queue = new LinkedBlockingQueue<>();
+    private final Semaphore throttle;
+    private final int maxQueuedBytes;
+    private final Thread sender;
+    private volatile Thread pollThread;
+
+    /**
+     * @param routers ROUTER sockets indexed by channel id, owned by the poll thread
+     */
+    Outbox(ZMQ.Context context, Signer signer, ZMQ.Socket iopub, ZMQ.Socket[] routers, int maxQueuedBytes,
+           KernelMetrics metrics)
+    {
+        this.metrics = metrics;
+        this.maxQueuedBytes = Math.max(1, maxQueuedBytes);
+        this.throttle = new Semaphore(this.maxQueuedBytes);
+        this.signer = signer;
+        this.iopub = iopub;
+        this.routers = routers;
+        String address = "inproc://outbox-" + System.identityHashCode(this);
+        forwarder = context.socket(ZMQ.PAIR);
+        forwarder.bind(address);
+        relay = context.socket(ZMQ.PAIR);
+        relay.connect(address);
+        sender = OutputRouter.unroutedThread(this::run, "kernel-outbox");
+        sender.setDaemon(true);
+    }
+
+    /**
+     * The socket the poll thread must watch and pass to {@link #forward()} when it is readable.
+     */
+    ZMQ.Socket getForwarder()
+    {
+        return forwarder;
+    }
+
+    void start()
+    {
+        pollThread = Thread.currentThread();
+        sender.start();
+    }
+
+    int queueDepth()
+    {
+        return queue.size();
+    }
+
+    void send(int channel, Message message) throws Exception
+    {
+        StopGuard.enter();
+        try
+        {
+            if (channel != SimpleKernel.IOPUB && Thread.currentThread() == pollThread)
+            {
+                message.send(routers[channel], signer);
+                sent(channel, message);
+                return;
+            }
+            byte[][] frames = message.toFrames(signer);
+            sent(channel, message);
+            queue.put(new Outgoing(channel, frames, message.buffers, 0));
+        }
+        finally
+        {
+            StopGuard.exit();
+        }
+    }
+
+    /**
+     * Queue several messages in order, signing them all before any is handed to the sender.
+     */
+    void sendAll(int channel, List<Message> messages) throws Exception
+    {
+        StopGuard.enter();
+        try
+        {
+            List<Outgoing> batch = new ArrayList<>(messages.size());
+            for (Message message : messages)
+            {
+                batch.add(new Outgoing(channel, message.toFrames(signer), message.buffers, 0));
+                sent(channel, message);
+            }
+            queue.addAll(batch);
+        }
+        finally
+        {
+            StopGuard.exit();
+        }
+    }
+
+    private void sent(int channel, Message message) throws Exception
+    {
+        metrics.serializeTime.record(KernelMetrics.micros(message.serializeNanos));
+        metrics.signTime.record(KernelMetrics.micros(message.signNanos));
+        if (channel != SimpleKernel.IOPUB && message.receivedNanos != 0)
+        {
+            metrics.requestCompleted(message.getParentHeader().msg_type, message.receivedNanos);
+        }
+    }
+
+    /**
+     * Queue a message whose size counts against the throttle, waiting until enough earlier output has been sent.
+     */
+    void sendThrottled(int channel, Message message) throws Exception
+    {
+        StopGuard.enter();
+        try
+        {
+            byte[][] frames = message.toFrames(signer);
+            sent(channel, message);
+            int size = 0;
+            for (byte[] frame : frames)
+            {
+                size += frame.length;
+            }
+            for (ByteBuffer buffer : message.buffers)
+            {
+                size += buffer.remaining();
+            }
+            // A single message bigger than the whole allowance still has to go through on its own
+            int weight = Math.min(size, maxQueuedBytes);
+            throttle.acquire(weight);
+            try
+            {
+                queue.put(new Outgoing(channel, frames, message.buffers, weight));
+            }
+            catch (Throwable ex)
+            {
+                // Not queued, so the sender will never return the permits
+                throttle.release(weight);
+                throw ex;
+            }
+        }
+        finally
+        {
+            StopGuard.exit();
+        }
+    }
+
+    /**
+     * Called on the poll thread: send every reply the sender has relayed so far.
+     */
+    void forward()
+    {
+        byte[] tag;
+        while ((tag = forwarder.recv(ZMQ.DONTWAIT)) != null)
+        {
+            ZMQ.Socket socket = routers[tag[0]];
+            while (forwarder.hasReceiveMore())
+            {
+                byte[] frame = forwarder.recv(0);
+                socket.send(frame, forwarder.hasReceiveMore() ? ZMQ.SNDMORE : 0);
+            }
+        }
+    }
+
+    private void run()
+    {
+        try
+        {
+            while (true)
+            {
+                Outgoing outgoing = queue.take();
+                if (outgoing == POISON)
+                {
+                    break;
+                }
+                if (outgoing.channel == SimpleKernel.IOPUB)
+                {
+                    long started = System.nanoTime();
+                    int bytes = sendFrames(iopub, outgoing);
+                    metrics.iopubSent(bytes, started);
+                }
+                else
+                {
+                    relay.sendMore(new byte[] { (byte) outgoing.channel });
+                    sendFrames(relay, outgoing);
+                }
+                throttle.release(outgoing.weight);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            LOG.warn("Outbox sender interrupted");
+        }
+        finally
+        {
+            iopub.close();
+            relay.close();
+        }
+    }
+
+    private static int sendFrames(ZMQ.Socket socket, Outgoing outgoing)
+    {
+        byte[][] frames = outgoing.frames;
+        int bytes = 0;
+        for (int i = 0; i < frames.length; i++)
+        {
+            boolean more = i < frames.length - 1 || !outgoing.buffers.isEmpty();
+            socket.send(frames[i], more ? ZMQ.SNDMORE : 0);
+            bytes += frames[i].length;
+        }
+        return bytes + Message.sendBuffers(socket, outgoing.buffers);
+    }
+
+    /**
+     * Flush what is queued, stop the sender and close the sockets owned by the outbox.  Called on the poll thread.
+     */
+    void close() throws InterruptedException
+    {
+        queue.put(POISON);
+        sender.join();
+        forward();
+        forwarder.close();
+    }
+}
@@ -0,0 +1,93 @@
+package simplekernel;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The number of output bytes a single cell may publish.  Output beyond the budget is written to a temporary
+ * file instead, which the client is told about once.
+ */
+class OutputBudget implements Closeable
+{
+    private final long limit;
+    private final String label;
+    private long used;
+    private boolean truncated;
+    private File spillFile;
+    private OutputStream spill;
+
+    /**
+     * @param limit bytes the cell may publish; zero or less means no limit
+     * @param label used in the spill file name
+     */
+    OutputBudget(long limit, String label)
+    {
+        this.limit = limit;
+        this.label = label;
+    }
+
+    /**
+     * Take up to {@code len} bytes from the budget and return how many may be published.
+     */
+    synchronized int admit(int len)
+    {
+        if (limit <= 0)
+        {
+            return len;
+        }
+        int allowed = (int) Math.max(0, Math.min(len, limit - used));
+        used += allowed;
+        return allowed;
+    }
+
+    /**
+     * True exactly once, for the first write that went over the budget.
+     */
+    synchronized boolean markTruncated()
+    {
+        if (truncated)
+        {
+            return false;
+        }
+        truncated = true;
+        return true;
+    }
+
+    long limit()
+    {
+        return limit;
+    }
+
+    synchronized File spillFile() throws IOException
+    {
+        if (spillFile == null)
+        {
+            spillFile = File.createTempFile("kernel-" + label + "-", ".out");
+        }
+        return spillFile;
+    }
+
+    synchronized void spill(byte[] b, int off, int len) throws IOException
+    {
+        if (spill == null)
+        {
+            // Reopened if a thread the cell started keeps printing after the cell has finished
+            spill = new BufferedOutputStream(new FileOutputStream(spillFile(), true));
+        }
+        spill.write(b, off, len);
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (spill != null)
+        {
+            spill.close();
+            spill = null;
+        }
+    }
+}
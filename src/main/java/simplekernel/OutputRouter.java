@@ -0,0 +1,362 @@
+package simplekernel;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.ConsoleAppender;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Routes {@code System.out} and {@code System.err} to whichever cell the writing thread belongs to.
+ *
+ * The kernel installs one router per standard stream at startup instead of swapping {@code System.out} around
+ * each execution, which would be global and send output from every other thread into the running cell.  A thread
+ * that is executing a cell sets a {@link Route}; threads it starts inherit it, so their output lands in the cell
+ * that spawned them, except for the kernel's own threads, which start unrouted.  Everything else goes to the
+ * original streams.
+ *
+ * The routers are print streams that hold no lock of their own: each call goes straight to the route's own print
+ * stream, so a cell made to wait for iopub only holds up the threads writing to that same cell.  Kernel logging
+ * to the console is pointed at the original streams when the routers are installed, so it neither waits behind a
+ * cell nor ends up in one.
+ */
+class OutputRouter extends PrintStream
+{
+    private static final InheritableThreadLocal<Route> ROUTE = new InheritableThreadLocal<>();
+    private static final String LOGBACK_CONTEXT = "ch.qos.logback.classic.LoggerContext";
+    private static boolean installed;
+
+    /**
+     * Where a cell's stdout and stderr go.
+     */
+    static class Route
+    {
+        final PrintStream out;
+        final PrintStream err;
+
+        Route(OutputStream out, OutputStream err)
+        {
+            this.out = printStream(out);
+            this.err = printStream(err);
+        }
+    }
+
+    private final PrintStream fallback;
+    private final boolean err;
+
+    private OutputRouter(PrintStream fallback, boolean err)
+    {
+        super(fallback, true);
+        this.fallback = fallback;
+        this.err = err;
+    }
+
+    private static PrintStream printStream(OutputStream out)
+    {
+        try
+        {
+            return new PrintStream(out, true, "UTF-8");
+        }
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Replace {@code System.out} and {@code System.err} with routed streams, once per JVM.
+     */
+    static synchronized void install()
+    {
+        if (installed)
+        {
+            return;
+        }
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        if (LOGBACK_CONTEXT.equals(LoggerFactory.getILoggerFactory().getClass().getName()))
+        {
+            Logback.unroute(out, err);
+        }
+        System.setOut(new OutputRouter(out, false));
+        System.setErr(new OutputRouter(err, true));
+        installed = true;
+    }
+
+    // Only loaded when logback is the logging backend
+    private static final class Logback
+    {
+        static void unroute(PrintStream out, PrintStream err)
+        {
+            LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+            for (Logger logger : context.getLoggerList())
+            {
+                for (Iterator<Appender<ILoggingEvent>> it = logger.iteratorForAppenders(); it.hasNext(); )
+                {
+                    Appender<ILoggingEvent> appender = it.next();
+                    if (appender instanceof ConsoleAppender)
+                    {
+                        ConsoleAppender<?> console = (ConsoleAppender<?>) appender;
+                        console.setOutputStream("System.err".equals(console.getTarget()) ? err : out);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the current thread's output, and that of threads it starts from now on, to {@code route}.
+     *
+     * @return the previous route, to hand back to {@link #restore}
+     */
+    static Route route(Route route)
+    {
+        Route previous = ROUTE.get();
+        ROUTE.set(route);
+        return previous;
+    }
+
+    /**
+     * The current thread's route, or null when its output is not routed.
+     */
+    static Route current()
+    {
+        return ROUTE.get();
+    }
+
+    /**
+     * A thread for the kernel's own use, which starts with no route.  Kernel threads are often started lazily by
+     * whichever thread first needs them, and would otherwise keep that cell's route for life.
+     */
+    static Thread unroutedThread(Runnable task, String name)
+    {
+        return new Thread(() ->
+        {
+            ROUTE.remove();
+            task.run();
+        }, name);
+    }
+
+    static void restore(Route previous)
+    {
+        if (previous == null)
+        {
+            ROUTE.remove();
+        }
+        else
+        {
+            ROUTE.set(previous);
+        }
+    }
+
+    private PrintStream target()
+    {
+        Route route = ROUTE.get();
+        if (route == null)
+        {
+            return fallback;
+        }
+        return err ? route.err : route.out;
+    }
+
+    @Override
+    public void write(int b)
+    {
+        target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+        target().write(b, off, len);
+    }
+
+    @Override
+    public void flush()
+    {
+        target().flush();
+    }
+
+    @Override
+    public void close()
+    {
+        // System.out is shared, so closing it only flushes the caller's output
+        target().flush();
+    }
+
+    @Override
+    public boolean checkError()
+    {
+        return target().checkError();
+    }
+
+    @Override
+    public void print(boolean b)
+    {
+        target().print(b);
+    }
+
+    @Override
+    public void print(char c)
+    {
+        target().print(c);
+    }
+
+    @Override
+    public void print(int i)
+    {
+        target().print(i);
+    }
+
+    @Override
+    public void print(long l)
+    {
+        target().print(l);
+    }
+
+    @Override
+    public void print(float f)
+    {
+        target().print(f);
+    }
+
+    @Override
+    public void print(double d)
+    {
+        target().print(d);
+    }
+
+    @Override
+    public void print(char[] s)
+    {
+        target().print(s);
+    }
+
+    @Override
+    public void print(String s)
+    {
+        target().print(s);
+    }
+
+    @Override
+    public void print(Object obj)
+    {
+        target().print(obj);
+    }
+
+    @Override
+    public void println()
+    {
+        target().println();
+    }
+
+    @Override
+    public void println(boolean x)
+    {
+        target().println(x);
+    }
+
+    @Override
+    public void println(char x)
+    {
+        target().println(x);
+    }
+
+    @Override
+    public void println(int x)
+    {
+        target().println(x);
+    }
+
+    @Override
+    public void println(long x)
+    {
+        target().println(x);
+    }
+
+    @Override
+    public void println(float x)
+    {
+        target().println(x);
+    }
+
+    @Override
+    public void println(double x)
+    {
+        target().println(x);
+    }
+
+    @Override
+    public void println(char[] x)
+    {
+        target().println(x);
+    }
+
+    @Override
+    public void println(String x)
+    {
+        target().println(x);
+    }
+
+    @Override
+    public void println(Object x)
+    {
+        target().println(x);
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args)
+    {
+        target().printf(format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream printf(Locale l, String format, Object... args)
+    {
+        target().printf(l, format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args)
+    {
+        target().format(format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream format(Locale l, String format, Object... args)
+    {
+        target().format(l, format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq)
+    {
+        target().append(csq);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq, int start, int end)
+    {
+        target().append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(char c)
+    {
+        target().append(c);
+        return this;
+    }
+}
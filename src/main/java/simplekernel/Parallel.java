@@ -0,0 +1,414 @@
+package simplekernel;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+import javax.script.ScriptContext;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Data-parallel map, forEach and reduce for notebook code, behind {@code utils.parallel}.
+ *
+ * Nashorn globals are not thread-safe, so a script function never runs on the global that defined it.  Its source
+ * is compiled once and evaluated into worker globals, each set up with the extensions like a session's and used
+ * by one task at a time, so the function sees its arguments and the extensions but not the variables around it.
+ * Java {@link Function}s and {@link BiFunction}s are called as they are.
+ *
+ * Work is split over a fork-join pool shared by every session of the runtime, but each session gets its own
+ * worker globals from {@link #forSession()}, so what one session's functions leave in them is not seen by another,
+ * and they go when the session is closed.  Each task writes to the output route of the cell that started it, and
+ * interrupting the cell stops the remaining elements.
+ */
+public class Parallel
+{
+    private static final int CACHED_FUNCTIONS = 32;
+    // Chunks per worker, so uneven elements still balance
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /**
+     * Integers from {@code from} up to but not including {@code to}.
+     */
+    public static final class Range
+    {
+        final int from;
+        final int to;
+
+        Range(int from, int to)
+        {
+            this.from = from;
+            this.to = Math.max(from, to);
+        }
+    }
+
+    private interface Elements
+    {
+        int size();
+
+        Object get(int index);
+    }
+
+    /**
+     * A global for running functions off the calling thread, and the functions evaluated into it so far.
+     */
+    private static final class WorkerGlobal
+    {
+        final ScriptContext context;
+        final Map<String, Object> functions = new LinkedHashMap<String, Object>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest)
+            {
+                return size() > CACHED_FUNCTIONS;
+            }
+        };
+
+        WorkerGlobal(ScriptContext context)
+        {
+            this.context = context;
+        }
+    }
+
+    /**
+     * A pool thread, which takes each task's route from its job rather than from the thread that started it.
+     */
+    private static final class Worker extends ForkJoinWorkerThread
+    {
+        Worker(ForkJoinPool pool)
+        {
+            super(pool);
+            setName("kernel-parallel-" + getPoolIndex());
+        }
+
+        @Override
+        protected void onStart()
+        {
+            super.onStart();
+            OutputRouter.restore(null);
+        }
+    }
+
+    private final ScriptRuntime runtime;
+    private final ForkJoinPool pool;
+    private final Queue<WorkerGlobal> globals = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    Parallel(ScriptRuntime runtime, int parallelism)
+    {
+        this(runtime, new ForkJoinPool(Math.max(1, parallelism), Worker::new, null, false));
+    }
+
+    private Parallel(ScriptRuntime runtime, ForkJoinPool pool)
+    {
+        this.runtime = runtime;
+        this.pool = pool;
+    }
+
+    /**
+     * The same pool with worker globals of its own, for one session.
+     */
+    Parallel forSession()
+    {
+        return new Parallel(runtime, pool);
+    }
+
+    /**
+     * Let go of the worker globals, once the session they belong to is closed.  Tasks still running return theirs
+     * to nothing.
+     */
+    void close()
+    {
+        closed = true;
+        WorkerGlobal global;
+        while ((global = globals.poll()) != null)
+        {
+            global.functions.clear();
+            global.context.getBindings(ScriptContext.ENGINE_SCOPE).clear();
+        }
+    }
+
+    public static Range range(int from, int to)
+    {
+        return new Range(from, to);
+    }
+
+    public Object[] map(Object source, Object function, Object argument) throws Exception
+    {
+        Elements elements = elements(source);
+        Object[] results = new Object[elements.size()];
+        run(elements, (global, index, element) -> results[index] = call(global, function, element, argument));
+        return results;
+    }
+
+    public void forEach(Object source, Object function, Object argument) throws Exception
+    {
+        run(elements(source), (global, index, element) -> call(global, function, element, argument));
+    }
+
+    /**
+     * Fold the elements with a function, which must be associative since chunks are folded separately and then
+     * combined.  Only the first chunk starts from {@code initial}; the others start from their first element.
+     */
+    public Object reduce(Object source, Object function, Object initial) throws Exception
+    {
+        Elements elements = elements(source);
+        boolean hasInitial = initial != null && !ScriptObjectMirror.isUndefined(initial);
+        if (elements.size() == 0)
+        {
+            return initial;
+        }
+        Job job = new Job(elements.size());
+        return job.execute(ForkJoinTask.adapt(() -> job.reduce(elements, 0, elements.size(), function, hasInitial,
+                initial)));
+    }
+
+    private interface Body
+    {
+        void apply(WorkerGlobal global, int index, Object element) throws Exception;
+    }
+
+    private void run(Elements elements, Body body) throws Exception
+    {
+        Job job = new Job(elements.size());
+        job.execute(ForkJoinTask.adapt(() -> job.each(elements, 0, elements.size(), body), null));
+    }
+
+    /**
+     * One call from a cell: its output route, its chunk size, and whether it has been abandoned.
+     */
+    private final class Job
+    {
+        final OutputRouter.Route route = OutputRouter.current();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final int chunk;
+
+        Job(int size)
+        {
+            chunk = Math.max(1, size / (pool.getParallelism() * CHUNKS_PER_WORKER));
+        }
+
+        Object execute(ForkJoinTask<Object> task) throws Exception
+        {
+            Thread current = Thread.currentThread();
+            if (current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) current).getPool() == pool)
+            {
+                // Called from inside a parallel function: join the work instead of blocking a worker
+                return task.invoke();
+            }
+            try
+            {
+                return pool.submit(task).get();
+            }
+            catch (ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                throw cause instanceof Exception ? (Exception) cause : ex;
+            }
+            finally
+            {
+                // Set when the cell is interrupted or stopped while waiting, so the workers give up
+                cancelled.set(true);
+            }
+        }
+
+        void each(Elements elements, int from, int to, Body body)
+        {
+            if (to - from > chunk)
+            {
+                int middle = (from + to) >>> 1;
+                ForkJoinTask<?> right = ForkJoinTask.adapt(() -> each(elements, middle, to, body)).fork();
+                each(elements, from, middle, body);
+                right.join();
+                return;
+            }
+            inWorker(global ->
+            {
+                for (int i = from; i < to && !cancelled.get(); i++)
+                {
+                    body.apply(global, i, elements.get(i));
+                }
+                return null;
+            });
+        }
+
+        Object reduce(Elements elements, int from, int to, Object function, boolean hasInitial, Object initial)
+        {
+            if (to - from > chunk)
+            {
+                int middle = (from + to) >>> 1;
+                ForkJoinTask<Object> right = ForkJoinTask.adapt(
+                        () -> reduce(elements, middle, to, function, hasInitial, initial)).fork();
+                Object left = reduce(elements, from, middle, function, hasInitial, initial);
+                Object rightResult = right.join();
+                return inWorker(global -> call(global, function, left, rightResult));
+            }
+            // Only the leftmost chunk takes the initial value, so it is folded in once
+            boolean seeded = hasInitial && from == 0;
+            return inWorker(global ->
+            {
+                Object accumulator = seeded ? initial : elements.get(from);
+                for (int i = seeded ? from : from + 1; i < to && !cancelled.get(); i++)
+                {
+                    accumulator = call(global, function, accumulator, elements.get(i));
+                }
+                return accumulator;
+            });
+        }
+
+        /**
+         * Run with a worker global to itself and the cell's output route.
+         */
+        Object inWorker(GlobalWork work)
+        {
+            WorkerGlobal global = globals.poll();
+            if (global == null)
+            {
+                global = new WorkerGlobal(runtime.createScriptContext("parallel worker",
+                        Collections.singletonMap(ScriptRuntime.PARALLEL_GLOBAL, Parallel.this)));
+            }
+            OutputRouter.Route previous = OutputRouter.route(route);
+            try
+            {
+                WorkerGlobal worker = global;
+                return runtime.withContext(worker.context, () -> work.apply(worker));
+            }
+            catch (RuntimeException ex)
+            {
+                cancelled.set(true);
+                throw ex;
+            }
+            catch (Exception ex)
+            {
+                cancelled.set(true);
+                throw new IllegalStateException(ex.getMessage(), ex);
+            }
+            finally
+            {
+                OutputRouter.restore(previous);
+                if (!closed)
+                {
+                    globals.add(global);
+                }
+            }
+        }
+    }
+
+    private interface GlobalWork
+    {
+        Object apply(WorkerGlobal global) throws Exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object call(WorkerGlobal global, Object function, Object first, Object second) throws Exception
+    {
+        if (function instanceof ScriptObjectMirror)
+        {
+            return ((ScriptObjectMirror) resolve(global, (ScriptObjectMirror) function)).call(null, first, second);
+        }
+        if (function instanceof BiFunction)
+        {
+            return ((BiFunction<Object, Object, Object>) function).apply(first, second);
+        }
+        if (function instanceof Function)
+        {
+            return ((Function<Object, Object>) function).apply(first);
+        }
+        throw new IllegalArgumentException("Not a function: " + function);
+    }
+
+    // The function as defined in the worker global, from its source
+    private Object resolve(WorkerGlobal global, ScriptObjectMirror function) throws Exception
+    {
+        if (!function.isFunction())
+        {
+            throw new IllegalArgumentException("Not a function: " + function);
+        }
+        String source = function.toString();
+        Object resolved = global.functions.get(source);
+        if (resolved == null)
+        {
+            if (source.contains("[native code]"))
+            {
+                throw new IllegalArgumentException("Parallel functions must be written in script, not built in"
+                        + " or bound: " + source);
+            }
+            resolved = runtime.scriptCache.get("(" + source + ")").eval(global.context);
+            global.functions.put(source, resolved);
+        }
+        return resolved;
+    }
+
+    private static Elements elements(Object source)
+    {
+        if (source instanceof Range)
+        {
+            Range range = (Range) source;
+            return indexed(range.to - range.from, i -> range.from + i);
+        }
+        if (source instanceof NumericColumn)
+        {
+            NumericColumn column = (NumericColumn) source;
+            return indexed(column.getLength(), column::getDouble);
+        }
+        if (source instanceof List && source instanceof RandomAccess)
+        {
+            List<?> list = (List<?>) source;
+            return indexed(list.size(), list::get);
+        }
+        Object[] array;
+        if (source instanceof Object[])
+        {
+            array = (Object[]) source;
+        }
+        else if (source instanceof Collection)
+        {
+            array = ((Collection<?>) source).toArray();
+        }
+        else if (source instanceof ScriptObjectMirror && ((ScriptObjectMirror) source).isArray())
+        {
+            array = ((ScriptObjectMirror) source).to(Object[].class);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Cannot run in parallel over " + source);
+        }
+        return indexed(array.length, i -> array[i]);
+    }
+
+    private interface Slot
+    {
+        Object get(int index);
+    }
+
+    private static Elements indexed(int size, Slot slot)
+    {
+        return new Elements()
+        {
+            @Override
+            public int size()
+            {
+                return size;
+            }
+
+            @Override
+            public Object get(int index)
+            {
+                return slot.get(index);
+            }
+        };
+    }
+}
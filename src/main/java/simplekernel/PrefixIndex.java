@@ -0,0 +1,163 @@
+package simplekernel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A trie from names to values, for completing identifiers.  Children are kept in sorted arrays rather than maps,
+ * so a node costs a few dozen bytes and matches come out in name order without sorting.
+ *
+ * Not thread-safe; {@link CompletionIndex} guards it.
+ */
+class PrefixIndex<V>
+{
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static final class Node
+    {
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        Object value;
+
+        Node child(char c)
+        {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        Node getOrAddChild(char c)
+        {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0)
+            {
+                return children[i];
+            }
+            int at = -i - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            newKeys[at] = c;
+            newChildren[at] = new Node();
+            System.arraycopy(keys, at, newKeys, at + 1, keys.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[at];
+        }
+
+        void removeChild(char c)
+        {
+            int i = Arrays.binarySearch(keys, c);
+            if (i < 0)
+            {
+                return;
+            }
+            char[] newKeys = new char[keys.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+            System.arraycopy(children, i + 1, newChildren, i, children.length - i - 1);
+            keys = newKeys.length == 0 ? NO_KEYS : newKeys;
+            children = newChildren.length == 0 ? NO_CHILDREN : newChildren;
+        }
+    }
+
+    private final Node root = new Node();
+    private int size;
+
+    void put(String name, V value)
+    {
+        Node node = root;
+        for (int i = 0; i < name.length(); i++)
+        {
+            node = node.getOrAddChild(name.charAt(i));
+        }
+        if (node.value == null)
+        {
+            size++;
+        }
+        node.value = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(String name)
+    {
+        Node node = find(name);
+        return node == null ? null : (V) node.value;
+    }
+
+    void remove(String name)
+    {
+        remove(root, name, 0);
+    }
+
+    // Returns true when the node is left empty and can be unlinked from its parent
+    private boolean remove(Node node, String name, int depth)
+    {
+        if (depth == name.length())
+        {
+            if (node.value != null)
+            {
+                node.value = null;
+                size--;
+            }
+        }
+        else
+        {
+            char c = name.charAt(depth);
+            Node child = node.child(c);
+            if (child != null && remove(child, name, depth + 1))
+            {
+                node.removeChild(c);
+            }
+        }
+        return node.value == null && node.keys.length == 0;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Names starting with the prefix, in order, at most limit of them.
+     */
+    List<String> complete(String prefix, int limit)
+    {
+        List<String> matches = new ArrayList<>();
+        Node node = find(prefix);
+        if (node != null && limit > 0)
+        {
+            collect(node, new StringBuilder(prefix), matches, limit);
+        }
+        return matches;
+    }
+
+    private static void collect(Node node, StringBuilder name, List<String> matches, int limit)
+    {
+        if (node.value != null)
+        {
+            matches.add(name.toString());
+        }
+        for (int i = 0; i < node.keys.length && matches.size() < limit; i++)
+        {
+            name.append(node.keys[i]);
+            collect(node.children[i], name, matches, limit);
+            name.setLength(name.length() - 1);
+        }
+    }
+
+    private Node find(String name)
+    {
+        Node node = root;
+        for (int i = 0; i < name.length() && node != null; i++)
+        {
+            node = node.child(name.charAt(i));
+        }
+        return node;
+    }
+}
@@ -0,0 +1,488 @@
+package simplekernel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+import jdk.nashorn.api.scripting.ScriptUtils;
+import org.apache.commons.io.output.StringBuilderWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Turns the value of a cell into the {@code data} bundle of an execute_result.
+ *
+ * Collections, maps, arrays, iterators and script objects are pulled lazily and only up to an element and size
+ * cap, with a "... N more" marker for what was left out (just "..." when the source cannot say how much is left), so
+ * an infinite iterator or a huge list renders in bounded time and memory.  Besides {@code text/plain}, structured
+ * values get an {@code application/json} representation streamed by Jackson straight from the Java or script
+ * objects.  Values that know how to write themselves as JSON, such as columns, are written that way and shown
+ * by their {@code toString}.
+ */
+class ResultRenderer
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    static final String ELLIPSIS = "\u2026";
+
+    private final int maxElements;
+    private final int maxBytes;
+    private final int maxDepth;
+
+    ResultRenderer(int maxElements, int maxBytes, int maxDepth)
+    {
+        this.maxElements = maxElements;
+        this.maxBytes = maxBytes;
+        this.maxDepth = maxDepth;
+    }
+
+    ResultRenderer(Settings settings)
+    {
+        this(settings.resultMaxElements, settings.resultMaxBytes, settings.resultMaxDepth);
+    }
+
+    /**
+     * JSON that Jackson writes verbatim when the bundle is serialized.
+     */
+    static class RawJson implements JsonSerializable
+    {
+        final String json;
+
+        RawJson(String json)
+        {
+            this.json = json;
+        }
+
+        @Override
+        public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException
+        {
+            gen.writeRawValue(json);
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer)
+                throws IOException
+        {
+            serialize(gen, provider);
+        }
+
+        @Override
+        public String toString()
+        {
+            return json;
+        }
+    }
+
+    /**
+     * The first elements of an iterator, which can only be walked once but is rendered twice.
+     */
+    private static class Prefix extends ArrayList<Object>
+    {
+        private static final long serialVersionUID = 1L;
+
+        // True when the iterator ran out, so the number of elements left out is known
+        boolean complete;
+    }
+
+    Map<String, Object> render(Object result) throws IOException
+    {
+        if (result instanceof Iterator)
+        {
+            result = prefix((Iterator<?>) result);
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("text/plain", renderText(result));
+        if (isStructured(result) || result instanceof JsonSerializable)
+        {
+            data.put("application/json", renderJson(result));
+        }
+        return data;
+    }
+
+    /**
+     * One line per element for containers, as the kernel always did, otherwise the value's string form.
+     */
+    String renderText(Object result)
+    {
+        if (result == null)
+        {
+            return "";
+        }
+        StringBuilder text = new StringBuilder();
+        if (!isStructured(result))
+        {
+            appendCapped(text, String.valueOf(result));
+            return text.toString();
+        }
+        Iterator<?> it = elements(result);
+        int shown = 0;
+        while (it.hasNext())
+        {
+            if (shown >= maxElements || text.length() >= maxBytes)
+            {
+                text.append('\n').append(more(result, shown));
+                break;
+            }
+            Object next = it.next();
+            if (shown > 0)
+            {
+                text.append('\n');
+            }
+            if (next instanceof Map.Entry)
+            {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) next;
+                appendCapped(text, entry.getKey() + "=");
+                appendDisplay(text, entry.getValue(), 0);
+            }
+            else
+            {
+                appendDisplay(text, next, 0);
+            }
+            shown++;
+        }
+        return text.toString();
+    }
+
+    private Prefix prefix(Iterator<?> it)
+    {
+        Prefix prefix = new Prefix();
+        // One past the cap, so running into the cap still shows that something was left out
+        while (prefix.size() <= maxElements && it.hasNext())
+        {
+            prefix.add(it.next());
+        }
+        prefix.complete = !it.hasNext();
+        return prefix;
+    }
+
+    RawJson renderJson(Object result) throws IOException
+    {
+        StringBuilderWriter out = new StringBuilderWriter();
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(out))
+        {
+            new JsonWriter(gen).write(result, 0);
+        }
+        return new RawJson(out.toString());
+    }
+
+    private void appendCapped(StringBuilder text, String value)
+    {
+        int room = maxBytes - text.length();
+        if (value.length() <= room)
+        {
+            text.append(value);
+        }
+        else
+        {
+            text.append(value, 0, Math.max(0, room)).append(ELLIPSIS);
+        }
+    }
+
+    /**
+     * Append one element's line.  Script arrays are written element by element in brackets, as script would
+     * show them, stopping at the caps, so a huge or deeply nested array is never converted whole.
+     */
+    private void appendDisplay(StringBuilder text, Object value, int depth)
+    {
+        if (!(value instanceof ScriptObjectMirror && ((ScriptObjectMirror) value).isArray()))
+        {
+            appendCapped(text, depth == 0 ? String.valueOf(value) : String.valueOf(ScriptUtils.convert(value,
+                    String.class)));
+            return;
+        }
+        ScriptObjectMirror array = (ScriptObjectMirror) value;
+        if (depth >= maxDepth)
+        {
+            appendCapped(text, "[" + ELLIPSIS + "]");
+            return;
+        }
+        text.append('[');
+        int size = length(array);
+        for (int i = 0; i < size; i++)
+        {
+            if (i >= maxElements || text.length() >= maxBytes)
+            {
+                text.append(more(array, i));
+                break;
+            }
+            if (i > 0)
+            {
+                text.append(',');
+            }
+            appendDisplay(text, array.getSlot(i), depth + 1);
+        }
+        text.append(']');
+    }
+
+    private class JsonWriter
+    {
+        final JsonGenerator gen;
+        // Rough count of characters written, checked between elements
+        int written;
+        int elements;
+
+        JsonWriter(JsonGenerator gen)
+        {
+            this.gen = gen;
+        }
+
+        boolean exhausted()
+        {
+            return elements >= maxElements || written >= maxBytes;
+        }
+
+        void write(Object value, int depth) throws IOException
+        {
+            if (value == null || ScriptObjectMirror.isUndefined(value))
+            {
+                gen.writeNull();
+                written += 4;
+            }
+            else if (value instanceof Boolean)
+            {
+                gen.writeBoolean((Boolean) value);
+                written += 5;
+            }
+            else if (value instanceof Number)
+            {
+                writeNumber((Number) value);
+            }
+            else if (value instanceof CharSequence || value instanceof Character)
+            {
+                writeString(value.toString());
+            }
+            else if (value instanceof ScriptObjectMirror && ((ScriptObjectMirror) value).isFunction())
+            {
+                writeString("function");
+            }
+            else if (value instanceof JsonSerializable)
+            {
+                // Through the mapper, so the value gets a real SerializerProvider for anything it delegates
+                Message.OBJECT_MAPPER.writeValue(gen, value);
+                written += 64;
+            }
+            else if (depth >= maxDepth || !isStructured(value))
+            {
+                writeString(value.toString());
+            }
+            else if (isObject(value))
+            {
+                writeObject(value, depth);
+            }
+            else
+            {
+                writeArray(value, depth);
+            }
+        }
+
+        void writeNumber(Number value) throws IOException
+        {
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            {
+                gen.writeNumber(value.longValue());
+            }
+            else
+            {
+                double d = value.doubleValue();
+                // Script numbers are doubles; keep whole ones looking like integers
+                if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 1e15)
+                {
+                    gen.writeNumber((long) d);
+                }
+                else
+                {
+                    gen.writeNumber(d);
+                }
+            }
+            written += 8;
+        }
+
+        void writeString(String value) throws IOException
+        {
+            int room = Math.max(0, maxBytes - written);
+            if (value.length() > room)
+            {
+                value = value.substring(0, room) + ELLIPSIS;
+            }
+            gen.writeString(value);
+            written += value.length() + 2;
+        }
+
+        void writeArray(Object value, int depth) throws IOException
+        {
+            gen.writeStartArray();
+            Iterator<?> it = elements(value);
+            int shown = 0;
+            while (it.hasNext())
+            {
+                if (exhausted())
+                {
+                    writeString(more(value, shown));
+                    break;
+                }
+                write(it.next(), depth + 1);
+                elements++;
+                shown++;
+            }
+            gen.writeEndArray();
+        }
+
+        void writeObject(Object value, int depth) throws IOException
+        {
+            gen.writeStartObject();
+            Iterator<?> it = elements(value);
+            int shown = 0;
+            while (it.hasNext())
+            {
+                if (exhausted())
+                {
+                    gen.writeFieldName(ELLIPSIS);
+                    writeString(more(value, shown));
+                    break;
+                }
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) it.next();
+                String key = String.valueOf(entry.getKey());
+                gen.writeFieldName(key);
+                written += key.length() + 3;
+                write(entry.getValue(), depth + 1);
+                elements++;
+                shown++;
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    private static boolean isStructured(Object value)
+    {
+        if (value instanceof ScriptObjectMirror)
+        {
+            return !((ScriptObjectMirror) value).isFunction();
+        }
+        return value instanceof Iterator || value instanceof Iterable || value instanceof Map
+                || (value != null && value.getClass().isArray());
+    }
+
+    private static boolean isObject(Object value)
+    {
+        if (value instanceof ScriptObjectMirror)
+        {
+            return !((ScriptObjectMirror) value).isArray();
+        }
+        return value instanceof Map;
+    }
+
+    /**
+     * Pull the elements of a container lazily: values for arrays and lists, entries for maps and script objects.
+     * A script object's values are read by key as they are shown, not through its {@code Map} view, which copies
+     * every entry.
+     */
+    private static Iterator<?> elements(Object value)
+    {
+        if (value instanceof ScriptObjectMirror)
+        {
+            ScriptObjectMirror mirror = (ScriptObjectMirror) value;
+            if (mirror.isArray())
+            {
+                return indexed(length(mirror), mirror::getSlot);
+            }
+            String[] keys = mirror.getOwnKeys(false);
+            return indexed(keys.length,
+                    i -> new AbstractMap.SimpleImmutableEntry<>(keys[i], mirror.getMember(keys[i])));
+        }
+        if (value instanceof Map)
+        {
+            return ((Map<?, ?>) value).entrySet().iterator();
+        }
+        if (value instanceof Iterator)
+        {
+            return (Iterator<?>) value;
+        }
+        if (value instanceof Iterable)
+        {
+            return ((Iterable<?>) value).iterator();
+        }
+        if (value != null && value.getClass().isArray())
+        {
+            return indexed(Array.getLength(value), i -> Array.get(value, i));
+        }
+        return Collections.singletonList(value).iterator();
+    }
+
+    /**
+     * A script array's length, read from the array rather than by {@code size()}, which counts every key.
+     */
+    private static int length(ScriptObjectMirror array)
+    {
+        Object length = array.getMember("length");
+        return length instanceof Number ? (int) Math.min(Integer.MAX_VALUE, ((Number) length).longValue()) : 0;
+    }
+
+    private interface Slot
+    {
+        Object get(int index);
+    }
+
+    private static Iterator<Object> indexed(int size, Slot slot)
+    {
+        return new Iterator<Object>()
+        {
+            int index;
+
+            @Override
+            public boolean hasNext()
+            {
+                return index < size;
+            }
+
+            @Override
+            public Object next()
+            {
+                if (index >= size)
+                {
+                    throw new NoSuchElementException();
+                }
+                return slot.get(index++);
+            }
+        };
+    }
+
+    /**
+     * Marker for elements left out; the count is only given for sized containers and script arrays, where it is
+     * cheap.
+     */
+    private static String more(Object value, int shown)
+    {
+        int size = -1;
+        if (value instanceof Prefix && !((Prefix) value).complete)
+        {
+            return ELLIPSIS;
+        }
+        if (value instanceof ScriptObjectMirror && ((ScriptObjectMirror) value).isArray())
+        {
+            size = length((ScriptObjectMirror) value);
+        }
+        else if (value instanceof Map && !(value instanceof ScriptObjectMirror))
+        {
+            size = ((Map<?, ?>) value).size();
+        }
+        else if (value instanceof Collection)
+        {
+            size = ((Collection<?>) value).size();
+        }
+        else if (value != null && value.getClass().isArray())
+        {
+            size = Array.getLength(value);
+        }
+        return size >= 0 ? ELLIPSIS + " " + (size - shown) + " more" : ELLIPSIS;
+    }
+}
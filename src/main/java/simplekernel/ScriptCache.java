@@ -0,0 +1,125 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of compiled cells, so re-running an unchanged cell skips parsing and bytecode generation.
+ *
+ * Entries are keyed by the cell source: String caches its hash, and the equality check on lookup rules out
+ * collisions.  Eviction is either least-recently-used or first-in-first-out.
+ */
+class ScriptCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ScriptCache.class);
+
+    private final Compilable compiler;
+    private final int maxSize;
+    private final Map<String, CompiledScript> scripts;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ScriptCache(Compilable compiler, int maxSize, String eviction)
+    {
+        this.compiler = compiler;
+        this.maxSize = maxSize;
+        boolean accessOrder;
+        if ("lru".equalsIgnoreCase(eviction))
+        {
+            accessOrder = true;
+        }
+        else if ("fifo".equalsIgnoreCase(eviction))
+        {
+            accessOrder = false;
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown script cache eviction policy: " + eviction);
+        }
+        scripts = new LinkedHashMap<String, CompiledScript>(16, 0.75f, accessOrder)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest)
+            {
+                if (size() > ScriptCache.this.maxSize)
+                {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    ScriptCache(Compilable compiler, Settings settings)
+    {
+        this(compiler, settings.scriptCacheSize, settings.scriptCacheEviction);
+    }
+
+    /**
+     * The compiled form of the code, compiling it on a miss.  Compilation happens outside the lock, so two
+     * threads missing on the same cell at once may both compile it; the later one wins.
+     */
+    CompiledScript get(String code) throws ScriptException
+    {
+        CompiledScript script;
+        synchronized (scripts)
+        {
+            script = scripts.get(code);
+        }
+        if (script != null)
+        {
+            hits.incrementAndGet();
+            return script;
+        }
+        misses.incrementAndGet();
+        script = compiler.compile(code);
+        if (maxSize > 0)
+        {
+            synchronized (scripts)
+            {
+                scripts.put(code, script);
+            }
+        }
+        return script;
+    }
+
+    long hits()
+    {
+        return hits.get();
+    }
+
+    long misses()
+    {
+        return misses.get();
+    }
+
+    long evictions()
+    {
+        return evictions.get();
+    }
+
+    int size()
+    {
+        synchronized (scripts)
+        {
+            return scripts.size();
+        }
+    }
+
+    void logStats()
+    {
+        LOG.debug(String.format("Script cache: %d entries, %d hits, %d misses, %d evictions",
+                size(), hits(), misses(), evictions()));
+    }
+}
@@ -0,0 +1,213 @@
+package simplekernel;
+
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The script engine and everything compiled with it: the cell cache and the extensions, plus the index of class
+ * names used for completion.  This is the expensive, slow-to-warm part of a kernel, so it is kept apart from the
+ * sockets and sessions; a kernel normally creates its own, and {@link KernelHost} shares one between all the
+ * kernels it runs.
+ */
+public class ScriptRuntime
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ScriptRuntime.class);
+    private static final String DEFAULT_JAVASCRIPT_ENGINE_ID = "ECMAScript";
+    static final String PARALLEL_GLOBAL = "__parallel";
+    private static final String TASK = "__task";
+
+    final ScriptEngine scriptEngine;
+    final ScriptCache scriptCache;
+    final ClassIndex classIndex;
+    final Parallel parallel;
+    private final Settings settings;
+    private volatile List<ExtensionLoader.Extension> extensions = Collections.emptyList();
+    private final Map<String, Object> hostGlobals = new ConcurrentHashMap<>();
+    private final CompiledScript runTask;
+
+    public ScriptRuntime(Settings settings)
+    {
+        this(settings, createRoutedScriptEngine(settings));
+    }
+
+    /**
+     * A runtime around an engine the host already has, for instance one with its own class filter or options.
+     * Cells are compiled with it, so it must be {@link Compilable}; Nashorn is.
+     */
+    public ScriptRuntime(Settings settings, ScriptEngine scriptEngine)
+    {
+        if (!(scriptEngine instanceof Compilable))
+        {
+            throw new IllegalArgumentException("Script engine " + scriptEngine + " cannot compile scripts");
+        }
+        this.settings = settings;
+        OutputRouter.install();
+        this.scriptEngine = scriptEngine;
+        scriptCache = new ScriptCache((Compilable) scriptEngine, settings);
+        try
+        {
+            runTask = ((Compilable) scriptEngine).compile(TASK + ".run()");
+        }
+        catch (ScriptException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+        classIndex = new ClassIndex(settings);
+        parallel = new Parallel(this, settings.parallelism);
+        if (settings.classIndex)
+        {
+            classIndex.start();
+        }
+    }
+
+    /**
+     * Nashorn keeps the {@code System.out} it was created with for output from functions called outside an eval,
+     * so the router has to be in place first.
+     */
+    private static ScriptEngine createRoutedScriptEngine(Settings settings)
+    {
+        OutputRouter.install();
+        return createScriptEngine(settings);
+    }
+
+    /**
+     * Nashorn with its persistent code cache pointed at the extension cache, unless that is turned off.
+     */
+    static ScriptEngine createScriptEngine(Settings settings)
+    {
+        if (settings.persistentCodeCache)
+        {
+            if (System.getProperty("nashorn.persistent.code.cache") == null)
+            {
+                System.setProperty("nashorn.persistent.code.cache", ExtensionLoader.codeCacheDir(settings).getPath());
+            }
+            return new NashornScriptEngineFactory().getScriptEngine("--persistent-code-cache");
+        }
+        ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
+        return scriptEngineManager.getEngineByName(DEFAULT_JAVASCRIPT_ENGINE_ID);
+    }
+
+    /**
+     * Fetch and compile the extensions in the list file; they are evaluated into each session's globals as the
+     * session starts.
+     */
+    public void loadExtensions(String extensionList)
+    {
+        LOG.info(String.format("Loading plugins from [%s]", extensionList));
+        try
+        {
+            extensions = new ExtensionLoader(scriptEngine, settings).load(extensionList);
+            LOG.info("Loaded " + extensions.size() + " extensions");
+        }
+        catch (IOException e)
+        {
+            LOG.error("Extension list failed to load", e);
+        }
+    }
+
+    /**
+     * Make a host object a global of every session started from now on, and of the extensions as they run.
+     */
+    public void bind(String name, Object value)
+    {
+        hostGlobals.put(name, value);
+    }
+
+    /**
+     * Add every binding, such as the engine's own global bindings, as {@link #bind} does.
+     */
+    public void bindAll(Map<String, ?> bindings)
+    {
+        hostGlobals.putAll(bindings);
+    }
+
+    /**
+     * Fresh globals with the host's objects bound and the extensions evaluated into them.
+     *
+     * @param globals kernel objects bound before the extensions run, so extensions can wrap them
+     */
+    ScriptContext createScriptContext(String label, Map<String, Object> globals)
+    {
+        ScriptContext context = new SimpleScriptContext();
+        Bindings bindings = scriptEngine.createBindings();
+        bindings.putAll(hostGlobals);
+        bindings.putAll(globals);
+        context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        // print() writes through the context's writers, which would otherwise use the platform charset
+        context.setWriter(new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), true));
+        context.setErrorWriter(new PrintWriter(new OutputStreamWriter(System.err, StandardCharsets.UTF_8), true));
+        for (ExtensionLoader.Extension extension : extensions)
+        {
+            try
+            {
+                extension.script.eval(context);
+            }
+            catch (Exception ex)
+            {
+                LOG.error("Failed to load extension " + extension.name + " into " + label
+                        + ". Attempting to continue", ex);
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Run Java code that calls script functions from {@code context}'s globals with that context current, as it is
+     * while a cell evaluates, so their {@code print()} writes to the context's writer.  Script functions called
+     * from Java otherwise write to the streams Nashorn saw when the engine was created.
+     */
+    <T> T withContext(ScriptContext context, Callable<T> task) throws Exception
+    {
+        Object[] result = new Object[1];
+        Exception[] failure = new Exception[1];
+        Runnable run = () ->
+        {
+            try
+            {
+                result[0] = task.call();
+            }
+            catch (Exception ex)
+            {
+                // Passed back as thrown rather than wrapped in a ScriptException by eval
+                failure[0] = ex;
+            }
+        };
+        ScriptContext current = new SimpleScriptContext();
+        current.setBindings(context.getBindings(ScriptContext.ENGINE_SCOPE), ScriptContext.ENGINE_SCOPE);
+        // The task is only visible to this call, so calls on other threads with the same globals do not collide
+        Bindings call = new SimpleBindings();
+        call.put(TASK, run);
+        current.setBindings(call, ScriptContext.GLOBAL_SCOPE);
+        current.setWriter(context.getWriter());
+        current.setErrorWriter(context.getErrorWriter());
+        current.setReader(context.getReader());
+        runTask.eval(current);
+        if (failure[0] != null)
+        {
+            throw failure[0];
+        }
+        @SuppressWarnings("unchecked")
+        T value = (T) result[0];
+        return value;
+    }
+}
@@ -0,0 +1,111 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.ScriptContext;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client session sharing the kernel: its own script globals, execution counter and queue of requests.
+ */
+class Session
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Session.class);
+
+    final String id;
+    final ExecutionEngine executionEngine;
+    final CompletionIndex completions;
+    final SessionComms comms;
+    final Parallel parallel;
+    // The request being handled, or last handled; comm messages sent by its code are parented on it
+    volatile Message request;
+    // The session's number in the history store, assigned when its first cell is written
+    final AtomicInteger historyNumber = new AtomicInteger();
+    // Only touched by the session's requests, which run one at a time
+    int executionCount = 1;
+    // When a request for the session last arrived, started or finished, for dropping idle sessions
+    volatile long lastActive = System.currentTimeMillis();
+
+    private final SessionPool pool;
+    private ScriptContext scriptContext;
+
+    Session(String id, SessionPool pool)
+    {
+        this.id = id;
+        this.pool = pool;
+        this.executionEngine = pool.createExecutionEngine(msg -> pool.handle(this, msg));
+        this.completions = pool.createCompletionIndex();
+        this.comms = pool.createComms(this);
+        this.parallel = pool.createParallel();
+    }
+
+    /**
+     * The session's globals, set up with the extensions on first use so that cost is paid on an execution worker
+     * rather than the poll thread.
+     */
+    synchronized ScriptContext getScriptContext()
+    {
+        if (scriptContext == null)
+        {
+            scriptContext = pool.createScriptContext(this);
+        }
+        return scriptContext;
+    }
+
+    void touch()
+    {
+        lastActive = System.currentTimeMillis();
+    }
+
+    /**
+     * Whether nothing is queued or running and nothing has been for the given time.
+     */
+    boolean idleFor(long millis, long now)
+    {
+        return executionEngine.queueDepth() == 0 && now - lastActive >= millis;
+    }
+
+    /**
+     * Drop anything queued, interrupt anything running and let go of the globals, parallel worker globals and comms,
+     * once the pool has dropped the session.
+     */
+    void close()
+    {
+        executionEngine.shutdown();
+        comms.close();
+        parallel.close();
+        ScriptContext context;
+        synchronized (this)
+        {
+            context = scriptContext;
+            scriptContext = null;
+        }
+        if (context != null)
+        {
+            try
+            {
+                context.getBindings(ScriptContext.ENGINE_SCOPE).clear();
+            }
+            catch (Exception ex)
+            {
+                LOG.warn("Failed to clear the globals of session " + id, ex);
+            }
+        }
+    }
+
+    /**
+     * Update the completion index with what the last cell defined; called on the execution thread after it ran.
+     */
+    void indexGlobals(ScriptContext context)
+    {
+        try
+        {
+            completions.refresh(context.getBindings(ScriptContext.ENGINE_SCOPE));
+        }
+        catch (Exception ex)
+        {
+            LOG.warn("Failed to index the globals of session " + id, ex);
+        }
+    }
+}
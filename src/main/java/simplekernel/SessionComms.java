@@ -0,0 +1,70 @@
+package simplekernel;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One session's side of the comm machinery, bound into its globals as {@value #GLOBAL} for {@code utils.comm}:
+ * the targets its code has registered for comms the frontend opens, and a way to open comms of its own.
+ */
+public class SessionComms
+{
+    static final String GLOBAL = "__comms";
+
+    public interface Target
+    {
+        /**
+         * @param content the comm_open content as JSON, with {@code comm_id}, {@code target_name} and {@code data}
+         */
+        void open(Comm comm, String content, List<ByteBuffer> buffers) throws Exception;
+    }
+
+    private final CommManager manager;
+    private final Session session;
+    private final Map<String, Target> targets = new ConcurrentHashMap<>();
+
+    SessionComms(CommManager manager, Session session)
+    {
+        this.manager = manager;
+        this.session = session;
+    }
+
+    public void registerTarget(String name, Target target)
+    {
+        targets.put(name, target);
+    }
+
+    public void unregisterTarget(String name)
+    {
+        targets.remove(name);
+    }
+
+    /**
+     * Open a comm to a frontend target.  The comm_open is published immediately, ahead of anything sent on it.
+     */
+    public Comm open(String targetName, String data, String metadata, List<ByteBuffer> buffers) throws Exception
+    {
+        Comm comm = new Comm(manager, session, HeaderFactory.nextMessageId(), targetName);
+        Message message = comm.openMessage(data, metadata);
+        if (buffers != null)
+        {
+            message.buffers = buffers;
+        }
+        manager.register(comm);
+        manager.send(message);
+        return comm;
+    }
+
+    Target target(String name)
+    {
+        return targets.get(name);
+    }
+
+    void close()
+    {
+        targets.clear();
+        manager.unregisterAll(session);
+    }
+}
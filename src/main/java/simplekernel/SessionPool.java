@@ -0,0 +1,207 @@
+package simplekernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.ScriptContext;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The sessions served by one kernel, keyed by the {@code session} field of the request header.
+ *
+ * Every session gets its own Nashorn global, so variables and extension state are isolated, but they share the
+ * script engine, the compiled-script cache and the compiled extensions, which is where most of a kernel's
+ * startup time and memory goes.  Sessions execute on a shared pool of worker threads, so independent sessions
+ * evaluate in parallel while each one still runs its cells in order.
+ *
+ * Frontends start a new session on every reconnect or page reload, so sessions do not last: one that has been idle
+ * for {@code sessionIdleMillis} is dropped with its globals, and when the pool is full the least recently active
+ * idle session makes room for a new one.  Sessions are only started and dropped on the poll thread, which is also
+ * the thread that hands them requests.
+ */
+class SessionPool
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SessionPool.class);
+    private static final long SWEEP_MILLIS = 1000;
+
+    interface Handler
+    {
+        void handle(Session session, Message msg) throws Exception;
+    }
+
+    private final ScriptRuntime runtime;
+    private final Handler handler;
+    private final CommManager comms;
+    private final int maxSessions;
+    private final long idleMillis;
+    private final int completionMaxMatches;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService interrupter;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private long lastSweep;
+
+    SessionPool(ScriptRuntime runtime, Settings settings, CommManager comms, Handler handler)
+    {
+        this.runtime = runtime;
+        this.handler = handler;
+        this.comms = comms;
+        this.maxSessions = settings.maxSessions;
+        this.idleMillis = settings.sessionIdleMillis;
+        this.completionMaxMatches = settings.completionMaxMatches;
+        workers = ExecutionEngine.createWorkers(settings.executionThreads);
+        interrupter = ExecutionEngine.createInterrupter();
+    }
+
+    /**
+     * The session with this id, started if it is new.  Returns null when starting it would exceed the limit and
+     * no idle session can make room.  Called on the poll thread.
+     */
+    Session get(String id)
+    {
+        String key = id == null ? "" : id;
+        Session session = sessions.get(key);
+        if (session == null)
+        {
+            if (maxSessions > 0 && sessions.size() >= maxSessions && !evictLeastRecent())
+            {
+                return null;
+            }
+            session = sessions.computeIfAbsent(key, k -> new Session(k, this));
+            LOG.info("Started session " + key + " (" + sessions.size() + " active)");
+        }
+        session.touch();
+        return session;
+    }
+
+    /**
+     * Drop the sessions that have been idle too long; called on the poll thread each time it wakes up.
+     */
+    void evictIdle()
+    {
+        long now = System.currentTimeMillis();
+        if (idleMillis <= 0 || now - lastSweep < SWEEP_MILLIS)
+        {
+            return;
+        }
+        lastSweep = now;
+        for (Session session : sessions.values())
+        {
+            if (session.idleFor(idleMillis, now))
+            {
+                evict(session, "idle for " + (now - session.lastActive) + " ms");
+            }
+        }
+    }
+
+    // Make room by dropping the idle session that was active longest ago; false if every session is busy
+    private boolean evictLeastRecent()
+    {
+        long now = System.currentTimeMillis();
+        Session oldest = null;
+        for (Session session : sessions.values())
+        {
+            if (session.idleFor(0, now) && (oldest == null || session.lastActive < oldest.lastActive))
+            {
+                oldest = session;
+            }
+        }
+        if (oldest == null)
+        {
+            return false;
+        }
+        evict(oldest, "least recently active of " + sessions.size());
+        return true;
+    }
+
+    private void evict(Session session, String reason)
+    {
+        if (sessions.remove(session.id, session))
+        {
+            session.close();
+            LOG.info("Dropped session " + session.id + ", " + reason + " (" + sessions.size() + " active)");
+        }
+    }
+
+    /**
+     * The session with this id if it has been started.
+     */
+    Session find(String id)
+    {
+        return sessions.get(id == null ? "" : id);
+    }
+
+    int size()
+    {
+        return sessions.size();
+    }
+
+    /**
+     * Execute requests queued or running across all sessions.
+     */
+    int queueDepth()
+    {
+        int depth = 0;
+        for (Session session : sessions.values())
+        {
+            depth += session.executionEngine.queueDepth();
+        }
+        return depth;
+    }
+
+    ExecutionEngine createExecutionEngine(ExecutionEngine.Handler sessionHandler)
+    {
+        return new ExecutionEngine(sessionHandler, workers, interrupter);
+    }
+
+    CompletionIndex createCompletionIndex()
+    {
+        return new CompletionIndex(completionMaxMatches, runtime.classIndex);
+    }
+
+    Parallel createParallel()
+    {
+        return runtime.parallel.forSession();
+    }
+
+    SessionComms createComms(Session session)
+    {
+        return new SessionComms(comms, session);
+    }
+
+    void handle(Session session, Message msg) throws Exception
+    {
+        session.touch();
+        try
+        {
+            handler.handle(session, msg);
+        }
+        finally
+        {
+            session.touch();
+        }
+    }
+
+    ScriptContext createScriptContext(Session session)
+    {
+        Map<String, Object> globals = new HashMap<>();
+        globals.put(SessionComms.GLOBAL, session.comms);
+        globals.put(ScriptRuntime.PARALLEL_GLOBAL, session.parallel);
+        return runtime.createScriptContext("session " + session.id, globals);
+    }
+
+    /**
+     * Drop queued requests, interrupt running ones and stop the workers.
+     */
+    void shutdown()
+    {
+        for (Session session : sessions.values())
+        {
+            session.executionEngine.shutdown();
+        }
+        ExecutionEngine.shutdown(workers, interrupter);
+    }
+}
@@ -0,0 +1,90 @@
+package simplekernel;
+
+/**
+ * Kernel tunables.  Unlike {@link Config}, which is the connection file Jupyter writes, these are chosen by
+ * whoever runs the kernel: each default can be overridden with a {@code -Dkernel.<name>=<value>} system
+ * property, or set directly when constructing a kernel.
+ */
+public class Settings
+{
+    // Compiled-script cache: maximum entries (0 disables it), and "lru" or "fifo" eviction
+    public int scriptCacheSize = intProperty("scriptCacheSize", 256);
+    public String scriptCacheEviction = stringProperty("scriptCacheEviction", "lru");
+
+    // Extension startup: on-disk cache of fetched sources and compiled code, and how many sources to fetch at once
+    public String extensionCacheDir = stringProperty("extensionCacheDir",
+            System.getProperty("user.home") + "/.simple-kernel-nashorn/cache");
+    public int extensionFetchThreads = intProperty("extensionFetchThreads", 4);
+    public boolean extensionRefresh = booleanProperty("extensionRefresh", false);
+    public boolean persistentCodeCache = booleanProperty("persistentCodeCache", true);
+
+    // Cell output is coalesced into stream messages of at most this many bytes, sent at least this often
+    public int streamMaxBytes = intProperty("streamMaxBytes", 64 * 1024);
+    public long streamFlushMillis = longProperty("streamFlushMillis", 50);
+
+    // Output governance: bytes a cell may publish before the rest is spilled to a temp file (0 for no limit),
+    // bytes of stream output that may wait in the outbox before the printing code blocks, and the iopub HWM
+    public long outputLimitBytes = longProperty("outputLimitBytes", 16L * 1024 * 1024);
+    public int outboxMaxBytes = intProperty("outboxMaxBytes", 4 * 1024 * 1024);
+    public int iopubHwm = intProperty("iopubHwm", 1000);
+
+    // Requests read from one socket per poll wakeup, which is also how many may wait in each channel's queue
+    public int dispatchBatch = intProperty("dispatchBatch", 64);
+
+    // Sessions: how many one kernel serves (0 for no limit), how long one may sit idle before it and its globals
+    // are dropped (0 to keep them) and how many threads evaluate their cells
+    public int maxSessions = intProperty("maxSessions", 64);
+    public long sessionIdleMillis = longProperty("sessionIdleMillis", 30 * 60 * 1000L);
+    public int executionThreads = intProperty("executionThreads",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    // Threads of the fork-join pool behind utils.parallel, shared by all sessions
+    public int parallelism = intProperty("parallelism", Runtime.getRuntime().availableProcessors());
+
+    // Host mode: loopback port on which a KernelHost takes connection files from KernelLauncher, and the directory
+    // of the owner-only file holding the token a launcher must present
+    public int hostPort = intProperty("hostPort", 7377);
+    public String hostTokenDir = stringProperty("hostTokenDir",
+            System.getProperty("user.home") + "/.simple-kernel-nashorn");
+
+    // Comms publish at most once per this interval; updates in between are coalesced to the latest
+    public long commFlushMillis = longProperty("commFlushMillis", 25);
+
+    // Include binary buffer frames in message signatures; Jupyter clients do not, so only for peers that do
+    public boolean signBuffers = booleanProperty("signBuffers", false);
+
+    // Code completion: most names offered in one complete_reply, and whether to index the class path for class
+    // names (in the background, cached under extensionCacheDir)
+    public int completionMaxMatches = intProperty("completionMaxMatches", 500);
+    public boolean classIndex = booleanProperty("classIndex", true);
+
+    // Where executed cells are kept for history_request (empty to keep none); kernels may share the directory
+    public String historyDir = stringProperty("historyDir",
+            System.getProperty("user.home") + "/.simple-kernel-nashorn/history");
+
+    // Execute results: elements rendered from a collection, characters per representation, and nesting depth
+    public int resultMaxElements = intProperty("resultMaxElements", 1000);
+    public int resultMaxBytes = intProperty("resultMaxBytes", 1024 * 1024);
+    public int resultMaxDepth = intProperty("resultMaxDepth", 10);
+
+    static String stringProperty(String name, String defaultValue)
+    {
+        return System.getProperty("kernel." + name, defaultValue);
+    }
+
+    static int intProperty(String name, int defaultValue)
+    {
+        return Integer.getInteger("kernel." + name, defaultValue);
+    }
+
+    static long longProperty(String name, long defaultValue)
+    {
+        return Long.getLong("kernel." + name, defaultValue);
+    }
+
+    static boolean booleanProperty(String name, boolean defaultValue)
+    {
+        String value = System.getProperty("kernel." + name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
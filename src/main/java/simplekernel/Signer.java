@@ -0,0 +1,237 @@
+package simplekernel;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HMAC signer for the wire protocol, keyed once per kernel.
+ *
+ * The key schedule is done a single time in the constructor; each thread then gets its own clone of the keyed
+ * {@link Mac} so signing never repeats the provider lookup or the key setup.  An empty key disables signing,
+ * as the protocol specifies.
+ *
+ * The protocol signs the four JSON frames only, and Jupyter clients check exactly those, so binary buffers are
+ * left out of the signature unless both ends have agreed to sign them too.
+ */
+public class Signer
+{
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] EMPTY = new byte[0];
+
+    private final SecretKeySpec keySpec;
+    private final Mac prototype;
+    private final int digestLength;
+    private final ThreadLocal<Mac> macs;
+    private final ThreadLocal<byte[]> scratch;
+    private final boolean signBuffers;
+
+    public Signer(String signatureScheme, byte[] key) throws GeneralSecurityException
+    {
+        this(signatureScheme, key, false);
+    }
+
+    public Signer(String signatureScheme, byte[] key, boolean signBuffers) throws GeneralSecurityException
+    {
+        this.signBuffers = signBuffers;
+        if (key == null || key.length == 0)
+        {
+            keySpec = null;
+            prototype = null;
+            digestLength = 0;
+            macs = null;
+            scratch = null;
+            return;
+        }
+        String algorithm = toAlgorithm(signatureScheme);
+        keySpec = new SecretKeySpec(key, algorithm);
+        prototype = Mac.getInstance(algorithm);
+        prototype.init(keySpec);
+        digestLength = prototype.getMacLength();
+        macs = ThreadLocal.withInitial(this::newMac);
+        // Holds the raw digest followed by its hex encoding, so verification allocates nothing
+        scratch = ThreadLocal.withInitial(() -> new byte[digestLength * 3]);
+    }
+
+    public static Signer create(Config config) throws GeneralSecurityException
+    {
+        return create(config, false);
+    }
+
+    public static Signer create(Config config, boolean signBuffers) throws GeneralSecurityException
+    {
+        byte[] key = config.key == null ? null : config.key.getBytes();
+        return new Signer(config.signature_scheme, key, signBuffers);
+    }
+
+    /**
+     * Map a Jupyter signature_scheme such as {@code hmac-sha256} onto the JCE algorithm name.
+     */
+    static String toAlgorithm(String signatureScheme) throws NoSuchAlgorithmException
+    {
+        String scheme = signatureScheme == null ? "hmac-sha256" : signatureScheme.trim().toLowerCase();
+        if (!scheme.startsWith("hmac-"))
+        {
+            throw new NoSuchAlgorithmException("Unsupported signature scheme: " + signatureScheme);
+        }
+        return "Hmac" + scheme.substring("hmac-".length()).replace("-", "").toUpperCase();
+    }
+
+    public boolean isEnabled()
+    {
+        return prototype != null;
+    }
+
+    private Mac newMac()
+    {
+        try
+        {
+            return (Mac) prototype.clone();
+        }
+        catch (CloneNotSupportedException ex)
+        {
+            // Provider without clone support: pay the key schedule once for this thread instead
+            try
+            {
+                Mac mac = Mac.getInstance(prototype.getAlgorithm(), prototype.getProvider());
+                mac.init(keySpec);
+                return mac;
+            }
+            catch (GeneralSecurityException gse)
+            {
+                throw new IllegalStateException(gse);
+            }
+        }
+    }
+
+    private void digest(byte[] out, List<ByteBuffer> buffers, byte[]... parts)
+    {
+        Mac mac = macs.get();
+        for (byte[] part : parts)
+        {
+            mac.update(part);
+        }
+        update(mac, buffers);
+        try
+        {
+            mac.doFinal(out, 0);
+        }
+        catch (GeneralSecurityException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void digest(byte[] out, FrameBuffer frames, List<ByteBuffer> buffers)
+    {
+        Mac mac = macs.get();
+        for (int i = FrameBuffer.HEADER; i <= FrameBuffer.CONTENT; i++)
+        {
+            mac.update(frames.array(i), frames.offset(i), frames.length(i));
+        }
+        update(mac, buffers);
+        try
+        {
+            mac.doFinal(out, 0);
+        }
+        catch (GeneralSecurityException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void update(Mac mac, List<ByteBuffer> buffers)
+    {
+        if (signBuffers)
+        {
+            for (ByteBuffer buffer : buffers)
+            {
+                // Direct buffers are read in place; the duplicate leaves the caller's position alone
+                mac.update(buffer.duplicate());
+            }
+        }
+    }
+
+    private void toHex(byte[] digest, byte[] out, int offset)
+    {
+        for (int i = 0; i < digestLength; i++)
+        {
+            out[offset + 2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            out[offset + 2 * i + 1] = HEX[digest[i] & 0xf];
+        }
+    }
+
+    /**
+     * Sign the four message parts and return the lowercase hex signature frame.
+     * The returned array is handed to ZeroMQ, which keeps a reference to it, so it is always a fresh array.
+     */
+    public byte[] sign(byte[] header, byte[] parent, byte[] meta, byte[] content)
+    {
+        if (!isEnabled())
+        {
+            return EMPTY;
+        }
+        byte[] buffer = scratch.get();
+        digest(buffer, Collections.emptyList(), header, parent, meta, content);
+        byte[] signature = new byte[2 * digestLength];
+        toHex(buffer, signature, 0);
+        return signature;
+    }
+
+    /**
+     * Sign the frames of an outgoing message as they sit in the per-thread frame buffer, and its binary buffers
+     * if those are signed.
+     */
+    public byte[] sign(FrameBuffer frames, List<ByteBuffer> buffers)
+    {
+        if (!isEnabled())
+        {
+            return EMPTY;
+        }
+        byte[] buffer = scratch.get();
+        digest(buffer, frames, buffers);
+        byte[] signature = new byte[2 * digestLength];
+        toHex(buffer, signature, 0);
+        return signature;
+    }
+
+    /**
+     * Check a received hex signature against the message parts in constant time.
+     */
+    public boolean verify(byte[] signature, byte[] header, byte[] parent, byte[] meta, byte[] content)
+    {
+        return verify(signature, header, parent, meta, content, Collections.emptyList());
+    }
+
+    public boolean verify(byte[] signature, byte[] header, byte[] parent, byte[] meta, byte[] content,
+            List<ByteBuffer> buffers)
+    {
+        if (!isEnabled())
+        {
+            return true;
+        }
+        if (signature == null || signature.length != 2 * digestLength)
+        {
+            return false;
+        }
+        byte[] buffer = scratch.get();
+        digest(buffer, buffers, header, parent, meta, content);
+        toHex(buffer, buffer, digestLength);
+        int diff = 0;
+        for (int i = 0; i < signature.length; i++)
+        {
+            // Accept uppercase hex from the peer by folding ASCII letters to lowercase
+            int c = signature[i];
+            if (c >= 'A' && c <= 'F')
+            {
+                c += 'a' - 'A';
+            }
+            diff |= c ^ buffer[digestLength + i];
+        }
+        return diff == 0;
+    }
+}
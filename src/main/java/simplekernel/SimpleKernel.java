@@ -0,0 +1,629 @@
+package simplekernel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.script.*;
+
+public class SimpleKernel
+{
+
+    public static int CONTROL = 0;
+    public static int STDIN = 1;
+    public static int SHELL = 2;
+    // Not polled; only used to address iopub through the outbox
+    public static int IOPUB = 3;
+    // Poll index of the outbox forwarder
+    public static int OUTBOX = 3;
+
+    Socket heartbeatChannel;
+    Socket controlChannel;
+    Socket stdinChannel;
+    Socket shellChannel;
+    Socket iopubChannel;
+
+    Signer signer;
+    String sessionId;
+    Poller items;
+    Context context;
+    private final boolean ownsContext;
+    private static final Logger LOG = LoggerFactory.getLogger(SimpleKernel.class);
+    volatile boolean exiting;
+    // How often the poll loop looks at the exiting flag when there is no traffic
+    private static final long POLL_TIMEOUT_MILLIS = 250;
+    private ScriptRuntime runtime;
+    private ScriptCache scriptCache;
+    private ResultRenderer resultRenderer;
+    Settings settings;
+    Outbox outbox;
+    SessionPool sessions;
+    ScheduledExecutorService streamFlusher;
+    KernelMetrics metrics;
+    HistoryStore history;
+    CommManager comms;
+    Dispatcher dispatcher;
+
+    public SimpleKernel(Config config) throws GeneralSecurityException
+    {
+        this(config, new Settings());
+    }
+
+    public SimpleKernel(Config config, Settings settings) throws GeneralSecurityException
+    {
+        this(config, settings, new ScriptRuntime(settings));
+    }
+
+    /**
+     * A kernel using an existing script runtime, which may be shared with other kernels in the same JVM.
+     */
+    public SimpleKernel(Config config, Settings settings, ScriptRuntime runtime) throws GeneralSecurityException
+    {
+        this(config, settings, runtime, null);
+    }
+
+    /**
+     * A kernel binding its sockets in the given ZeroMQ context, which {@code inproc} clients must share; the
+     * context is left open when the kernel finishes.  With no context the kernel creates and terminates its own.
+     */
+    public SimpleKernel(Config config, Settings settings, ScriptRuntime runtime, Context sharedContext)
+            throws GeneralSecurityException
+    {
+        signer = Signer.create(config, settings.signBuffers);
+        sessionId = UUID.randomUUID().toString();
+        //  Prepare our context and sockets
+        ownsContext = sharedContext == null;
+        context = ownsContext ? ZMQ.context(1) : sharedContext;
+        //  Initialize poll set
+        items = new Poller(4);
+        String transport = config.transport;
+        heartbeatChannel = Utils.createSocket(context, ZMQ.REP, transport, config.ip, config.hb_port, -1);
+        controlChannel = Utils.createPolledSocket(context, items, ZMQ.ROUTER, transport, config.ip,
+                config.control_port);
+        stdinChannel = Utils.createPolledSocket(context, items, ZMQ.ROUTER, transport, config.ip, config.stdin_port);
+        shellChannel = Utils.createPolledSocket(context, items, ZMQ.ROUTER, transport, config.ip, config.shell_port);
+        iopubChannel = Utils.createSocket(context, ZMQ.PUB, transport, config.ip, config.iopub_port,
+                settings.iopubHwm);
+        metrics = new KernelMetrics();
+        outbox = new Outbox(context, signer, iopubChannel, new Socket[] { controlChannel, stdinChannel, shellChannel },
+                settings.outboxMaxBytes, metrics);
+        items.register(outbox.getForwarder(), Poller.POLLIN);
+        dispatcher = new Dispatcher(signer, new Socket[] { controlChannel, stdinChannel, shellChannel }, outbox,
+                settings.dispatchBatch);
+        streamFlusher = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread thread = OutputRouter.unroutedThread(r, "kernel-stream-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.settings = settings;
+        this.runtime = runtime;
+        comms = new CommManager(outbox, streamFlusher, settings);
+        sessions = new SessionPool(runtime, settings, comms, this::sessionRequest);
+        scriptCache = runtime.scriptCache;
+        resultRenderer = new ResultRenderer(settings);
+        history = HistoryStore.open(settings);
+        metrics.gauges(outbox::queueDepth, sessions::queueDepth, sessions::size);
+        metrics.register(sessionId);
+        registerHandlers();
+
+    }
+
+    void dumpHeader(String where, Message msg)
+    {
+        LOG.info("=========================================");
+        LOG.info("Channel:  " + where);
+        LOG.info("=========================================");
+        LOG.info("msg_id:   " + msg.header.msg_id);
+        LOG.info("msg_type: " + msg.header.msg_type);
+        LOG.info("username: " + msg.header.username);
+        LOG.info("version:  " + msg.header.version);
+        LOG.info("date:     " + msg.header.date);
+        LOG.info("-----------------------------------------");
+    }
+
+    class HeartbeatThread extends Thread
+    {
+        public HeartbeatThread()
+        {
+
+        }
+
+        @Override
+        public void run()
+        {
+            LOG.info("Starting heartbeat");
+            heartbeatChannel.setReceiveTimeOut((int) POLL_TIMEOUT_MILLIS);
+            try
+            {
+                while (!exiting)
+                {
+                    byte[] ping = heartbeatChannel.recv(0);
+                    if (ping == null)
+                    {
+                        continue;
+                    }
+                    long received = System.nanoTime();
+                    // Echo every frame back unchanged
+                    while (heartbeatChannel.hasReceiveMore())
+                    {
+                        heartbeatChannel.sendMore(ping);
+                        ping = heartbeatChannel.recv(0);
+                    }
+                    heartbeatChannel.send(ping, 0);
+                    metrics.heartbeat(received);
+                }
+            }
+            finally
+            {
+                // The context cannot terminate until this socket is closed, and only this thread may close it
+                heartbeatChannel.close();
+            }
+        }
+    }
+
+    public void start(String extensionListFile) throws Exception
+    {
+        if (extensionListFile != null)
+        {
+            runtime.loadExtensions(extensionListFile);
+        }
+        HeartbeatThread thread = new HeartbeatThread();
+        thread.start();
+        LOG.info("Starting Heartbeat thread");
+        outbox.start();
+        //  Switch messages between sockets
+        while (!Thread.currentThread().isInterrupted() && !exiting)
+        {
+            items.poll(POLL_TIMEOUT_MILLIS);
+            // Control first, then stdin and shell, each read in batches
+            dispatcher.dispatch(items);
+            if (items.pollin(OUTBOX))
+            {
+                outbox.forward();
+            }
+            sessions.evictIdle();
+        }
+        LOG.info("DONE");
+        // Also tells the heartbeat thread to finish if the loop ended by interruption
+        exiting = true;
+
+        metrics.unregister();
+        dispatcher.shutdown();
+        sessions.shutdown();
+        if (history != null)
+        {
+            history.sync();
+        }
+        streamFlusher.shutdown();
+        outbox.close();
+        controlChannel.close();
+        stdinChannel.close();
+        shellChannel.close();
+
+        if (ownsContext)
+        {
+            context.term();
+        }
+    }
+
+    /**
+     * Ask a running kernel to shut down, as a shutdown_request would; {@link #start} returns once it has.
+     */
+    public void stop()
+    {
+        exiting = true;
+    }
+
+    public static void main(String[] args)
+    {
+
+        try
+        {
+            String configFile = args[0];
+            String extensionsFile = args.length == 2 ? args[1]: null;
+            LOG.debug("Config file: " + configFile);
+            FileInputStream fis = new FileInputStream(configFile);
+            ObjectMapper om = new ObjectMapper();
+            Config config = om.readValue(fis, Config.class);
+            SimpleKernel sk = new SimpleKernel(config);
+            LOG.info("Launched kernel");
+            sk.start(extensionsFile);
+            LOG.info("Kernel finished");
+
+        }
+        catch (Exception ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    // Constant payloads are serialized once and sent verbatim
+    private static final byte[] STATUS_BUSY = constantContent(Collections.singletonMap("execution_state", "busy"));
+    private static final byte[] STATUS_IDLE = constantContent(Collections.singletonMap("execution_state", "idle"));
+    private static final byte[] KERNEL_INFO = constantContent(kernelInfo());
+
+    private static byte[] constantContent(Object content)
+    {
+        try
+        {
+            return Message.toBytes(content);
+        }
+        catch (IOException ex)
+        {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private static Map<String, Object> kernelInfo()
+    {
+        Map<String, Object> content = new HashMap<>();
+        content.put("protocol_version", "5.0");
+        content.put("implementation", "simple-kernel-nashorn");
+        content.put("implementation_version", "0.0.1");
+
+        Map<String, Object> languageInfo = new HashMap<>();
+        languageInfo.put("name", "simple-kernel-nashorn");
+        languageInfo.put("version", "0.0.1");
+        languageInfo.put("mimetype", "");
+        languageInfo.put("file_extension", ".js");
+        languageInfo.put("pygments_lexer", "JavaScript");
+        languageInfo.put("codemirror_code", "");
+        languageInfo.put("nbconvert_exporter", "");
+
+        content.put("language_info", languageInfo);
+        content.put("banner", "Simple Kernel Nashorn");
+        return content;
+    }
+
+    private void sendStatus(Message msgParent, byte[] status) throws Exception
+    {
+        Message busyStatus = new Message(msgParent, "status");
+        busyStatus.setContent(status);
+        outbox.send(IOPUB, busyStatus);
+        msgParent.busy = status == STATUS_BUSY;
+    }
+
+    /**
+     * Refuse a request from a new session once the kernel is serving as many sessions as it is allowed to.
+     */
+    private void rejectExecution(Message msg) throws Exception
+    {
+        LOG.warn("Refusing execute_request from session " + msg.header.session + ", "
+                + sessions.size() + " sessions already active");
+        Message executeReply = new Message(msg, "execute_reply");
+        executeReply.getContent().put("status", "error");
+        executeReply.getContent().put("ename", "SessionLimit");
+        executeReply.getContent().put("evalue", "This kernel is already serving " + settings.maxSessions + " sessions");
+        executeReply.getContent().put("traceback", new ArrayList<>());
+        executeReply.identities = msg.identities;
+        outbox.send(SHELL, executeReply);
+    }
+
+    /**
+     * Requests that run on a session's execution thread: cells, and comm messages whose handlers are in its globals.
+     */
+    private void sessionRequest(Session session, Message msg) throws Exception
+    {
+        session.request = msg;
+        if (msg.header.msg_type.startsWith("comm_"))
+        {
+            commRequest(session, msg);
+        }
+        else
+        {
+            executeRequest(session, msg);
+        }
+    }
+
+    private void executeRequest(Session session, Message msg) throws Exception
+    {
+
+        LOG.debug("simple-kernel-nashorn Executing");
+        sendStatus(msg, STATUS_BUSY);
+
+        Message executeInput = new Message(msg, "execute_input");
+        executeInput.getContent().put("execution_count", session.executionCount);
+        String code = (String) msg.getContent().get("code");
+        executeInput.getContent().put("code", code);
+        outbox.send(IOPUB, executeInput);
+        if (history != null && !Boolean.FALSE.equals(msg.getContent().get("store_history"))
+                && !Boolean.TRUE.equals(msg.getContent().get("silent")))
+        {
+            history.append(session.historyNumber, session.executionCount, code);
+        }
+
+        OutputBudget budget = new OutputBudget(settings.outputLimitBytes, "cell-" + session.executionCount);
+        CellOutputStream stdout = new CellOutputStream(outbox, msg, "stdout", budget, settings, streamFlusher);
+        CellOutputStream stderr = new CellOutputStream(outbox, msg, "stderr", budget, settings, streamFlusher);
+        try
+        {
+            ScriptContext scriptContext = session.getScriptContext();
+            CompiledScript script = scriptCache.get(code);
+            Map<String, Object> data;
+            OutputRouter.Route previous = OutputRouter.route(new OutputRouter.Route(stdout, stderr));
+            try
+            {
+                long started = System.nanoTime();
+                Object evalOut = session.executionEngine.interruptible(() -> script.eval(scriptContext));
+                long evaluated = System.nanoTime();
+                // Rendering may run script iterators and getters, so it can be interrupted like the cell itself
+                data = session.executionEngine.interruptible(() ->
+                        runtime.withContext(scriptContext, () -> resultRenderer.render(evalOut)));
+                metrics.evalTime.record(KernelMetrics.micros(evaluated - started));
+                KernelMetrics.recordSince(metrics.renderTime, evaluated);
+            }
+            finally
+            {
+                session.indexGlobals(scriptContext);
+                OutputRouter.restore(previous);
+                comms.flush();
+            }
+            stdout.drain();
+            stderr.drain();
+            Message executeResult = new Message(msg, "execute_result");
+            executeResult.getContent().put("execution_count", session.executionCount);
+            executeResult.getContent().put("data", data);
+            executeResult.getContent().put("metadata", new HashMap<>());
+            outbox.send(IOPUB, executeResult);
+            sendStatus(msg, STATUS_IDLE);
+
+            Message executeReply = new Message(msg, "execute_reply");
+            executeReply.getContent().put("status", "ok");
+            executeReply.getContent().put("execution_count", session.executionCount);
+            executeReply.getContent().put("user_variables", new HashMap<>());
+            executeReply.getContent().put("payload", new ArrayList<>());
+            executeReply.getContent().put("user_expressions", new HashMap<>());
+            executeReply.identities = msg.identities;
+            outbox.send(SHELL, executeReply);
+        }
+        catch(Exception | ThreadDeath ex)
+        {
+            stdout.drain();
+            stderr.drain();
+            // A stopped cell surfaces as ThreadDeath, whose stack only shows where it was stopped from
+            List<String> bt = ex instanceof ThreadDeath ? new ArrayList<>() :
+                    Arrays.asList(ex.getStackTrace()).stream().map(f -> f.toString()).collect(Collectors.toList());
+            String ename = ex instanceof ThreadDeath ? "Interrupted" : ex.getClass().toString();
+            String evalue = ex instanceof ThreadDeath ? "Execution interrupted" : ex.getMessage();
+            Message errorResult = new Message(msg, "error");
+            errorResult.getContent().put("ename", ename);
+            errorResult.getContent().put("evalue", evalue);
+            errorResult.getContent().put("traceback", bt);
+            outbox.send(IOPUB, errorResult);
+            sendStatus(msg, STATUS_IDLE);
+
+            Message executeReply = new Message(msg, "execute_reply");
+            executeReply.getContent().put("execution_count", session.executionCount);
+            executeReply.getContent().put("status", "error");
+            executeReply.getContent().put("ename", ename);
+            executeReply.getContent().put("evalue", evalue);
+            executeReply.getContent().put("traceback", bt);
+            executeReply.identities = msg.identities;
+            outbox.send(SHELL, executeReply);
+
+        }
+        finally
+        {
+            stdout.close();
+            stderr.close();
+            budget.close();
+            metrics.streamMessagesPerCell.record(stdout.messageCount() + stderr.messageCount());
+        }
+
+        scriptCache.logStats();
+        session.executionCount++;
+    }
+
+    private void commRequest(Session session, Message msg) throws Exception
+    {
+        sendStatus(msg, STATUS_BUSY);
+        // Handlers may print, which goes to the notebook like a cell's output
+        OutputBudget budget = new OutputBudget(settings.outputLimitBytes, "comm");
+        CellOutputStream stdout = new CellOutputStream(outbox, msg, "stdout", budget, settings, streamFlusher);
+        CellOutputStream stderr = new CellOutputStream(outbox, msg, "stderr", budget, settings, streamFlusher);
+        Throwable error = null;
+        OutputRouter.Route previous = OutputRouter.route(new OutputRouter.Route(stdout, stderr));
+        try
+        {
+            // Handlers are script functions, called with the session's globals current so they print to the route
+            session.executionEngine.interruptible(() -> runtime.withContext(session.getScriptContext(), () ->
+            {
+                comms.dispatch(session, msg);
+                return null;
+            }));
+        }
+        catch (Exception | ThreadDeath ex)
+        {
+            error = ex;
+            String text = ex instanceof ThreadDeath ? "Execution interrupted" : ex.toString();
+            stderr.write((text + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        }
+        finally
+        {
+            OutputRouter.restore(previous);
+            comms.flush();
+            stdout.close();
+            stderr.close();
+            budget.close();
+        }
+        if (error != null)
+        {
+            // Logged once output is no longer routed to the notebook
+            LOG.warn("Error in " + msg.header.msg_type + " handler", error);
+        }
+        sendStatus(msg, STATUS_IDLE);
+    }
+
+    /**
+     * The requests the kernel answers, by channel and msg_type.  Completion and inspection run on the dispatch
+     * thread, since indexing the members of a Java class for the first time can take a while; everything else only
+     * answers from memory or hands the request to a session, so it runs on the poll thread.  kernel_info_request is
+     * how frontends tell the kernel is responsive, so it is answered ahead of other queued shell requests.
+     */
+    private void registerHandlers()
+    {
+        dispatcher.register(CONTROL, "shutdown_request", Dispatcher.Mode.INLINE, this::shutdownRequest);
+        dispatcher.register(CONTROL, "interrupt_request", Dispatcher.Mode.INLINE, this::interruptRequest);
+        dispatcher.register(SHELL, "execute_request", Dispatcher.Mode.INLINE, this::submitExecution);
+        dispatcher.register(SHELL, "kernel_info_request", Dispatcher.Mode.URGENT, this::kernelInfoRequest);
+        dispatcher.register(SHELL, "complete_request", Dispatcher.Mode.EXECUTOR, this::completeRequest);
+        dispatcher.register(SHELL, "inspect_request", Dispatcher.Mode.EXECUTOR, this::inspectRequest);
+        dispatcher.register(SHELL, "comm_open", Dispatcher.Mode.INLINE, this::commOpen);
+        dispatcher.register(SHELL, "comm_msg", Dispatcher.Mode.INLINE, this::commMessage);
+        dispatcher.register(SHELL, "comm_close", Dispatcher.Mode.INLINE, this::commMessage);
+        dispatcher.register(SHELL, "comm_info_request", Dispatcher.Mode.INLINE, this::commInfoRequest);
+        // Not part of the Jupyter protocol: a snapshot of KernelMetrics for monitoring
+        dispatcher.register(SHELL, "kernel_metrics_request", Dispatcher.Mode.INLINE, this::kernelMetricsRequest);
+        dispatcher.register(SHELL, "history_request", Dispatcher.Mode.INLINE, this::historyRequest);
+    }
+
+    private void shutdownRequest(Message msg) throws Exception
+    {
+        exiting = true;
+        Message shutdownReply = new Message(msg, "shutdown_reply");
+        shutdownReply.identities = msg.identities;
+        shutdownReply.getContent().put("restart", msg.getContent().get("restart"));
+        outbox.send(CONTROL, shutdownReply);
+    }
+
+    private void interruptRequest(Message msg) throws Exception
+    {
+        // Only the requesting session is interrupted; the others keep running
+        Session session = sessions.find(msg.header.session);
+        if (session == null || !session.executionEngine.interrupt())
+        {
+            LOG.info("interrupt requested with nothing executing");
+        }
+        Message interruptReply = new Message(msg, "interrupt_reply");
+        interruptReply.identities = msg.identities;
+        interruptReply.getContent().put("status", "ok");
+        outbox.send(CONTROL, interruptReply);
+    }
+
+    private void submitExecution(Message msg) throws Exception
+    {
+        Session session = sessions.get(msg.header.session);
+        if (session == null)
+        {
+            rejectExecution(msg);
+        }
+        else
+        {
+            session.executionEngine.submit(msg);
+        }
+    }
+
+    private void kernelInfoRequest(Message msg) throws Exception
+    {
+        Message kernelInfoReply = new Message(msg, "kernel_info_reply");
+        kernelInfoReply.identities = msg.identities;
+        kernelInfoReply.setContent(KERNEL_INFO);
+        outbox.send(SHELL, kernelInfoReply);
+        sendStatus(msg, STATUS_IDLE);
+    }
+
+    // Answered from the session's index, so a running cell does not hold up completion
+    private CompletionIndex completionIndex(Message msg)
+    {
+        Session session = sessions.find(msg.header.session);
+        return session != null ? session.completions : sessions.createCompletionIndex();
+    }
+
+    private void completeRequest(Message msg) throws Exception
+    {
+        String code = (String) msg.getContent().get("code");
+        int cursorPos = ((Number) msg.getContent().getOrDefault("cursor_pos", 0)).intValue();
+        Message reply = new Message(msg, "complete_reply");
+        reply.setContent(completionIndex(msg).complete(code, cursorPos));
+        reply.identities = msg.identities;
+        outbox.send(SHELL, reply);
+    }
+
+    private void inspectRequest(Message msg) throws Exception
+    {
+        String code = (String) msg.getContent().get("code");
+        int cursorPos = ((Number) msg.getContent().getOrDefault("cursor_pos", 0)).intValue();
+        int detailLevel = ((Number) msg.getContent().getOrDefault("detail_level", 0)).intValue();
+        Message reply = new Message(msg, "inspect_reply");
+        reply.setContent(completionIndex(msg).inspect(code, cursorPos, detailLevel));
+        reply.identities = msg.identities;
+        outbox.send(SHELL, reply);
+    }
+
+    private void commOpen(Message msg) throws Exception
+    {
+        Session session = sessions.find(msg.header.session);
+        if (session == null || session.comms.target((String) msg.getContent().get("target_name")) == null)
+        {
+            comms.reject(msg);
+        }
+        else
+        {
+            session.executionEngine.submit(msg);
+        }
+    }
+
+    private void commMessage(Message msg) throws Exception
+    {
+        Session session = comms.owner((String) msg.getContent().get("comm_id"));
+        if (session == null)
+        {
+            LOG.warn(msg.header.msg_type + " for unknown comm " + msg.getContent().get("comm_id"));
+        }
+        else
+        {
+            session.executionEngine.submit(msg);
+        }
+    }
+
+    private void commInfoRequest(Message msg) throws Exception
+    {
+        Message commInfoReply = new Message(msg, "comm_info_reply");
+        commInfoReply.identities = msg.identities;
+        commInfoReply.setContent(comms.info((String) msg.getContent().get("target_name")));
+        outbox.send(SHELL, commInfoReply);
+    }
+
+    private void kernelMetricsRequest(Message msg) throws Exception
+    {
+        Message metricsReply = new Message(msg, "kernel_metrics_reply");
+        metricsReply.identities = msg.identities;
+        metricsReply.setContent(metrics.snapshot());
+        outbox.send(SHELL, metricsReply);
+    }
+
+    private void historyRequest(Message msg) throws Exception
+    {
+        Session session = sessions.find(msg.header.session);
+        HistoryStore.Reply reply = items ->
+        {
+            Message historyReply = new Message(msg, "history_reply");
+            historyReply.identities = msg.identities;
+            historyReply.getContent().put("status", "ok");
+            historyReply.getContent().put("history", items);
+            outbox.send(SHELL, historyReply);
+        };
+        if (history == null)
+        {
+            reply.send(new ArrayList<>());
+        }
+        else
+        {
+            history.request(msg.getContent(), session != null ? session.historyNumber : new AtomicInteger(), reply);
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package simplekernel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps {@link Thread#stop()} out of kernel code that a cell thread runs, such as queueing its output, where a
+ * {@link ThreadDeath} would leave a buffer half-copied or throttle permits taken and never returned.
+ *
+ * Such code runs between {@link #enter()} and {@link #exit()}.  A stop requested while the thread is inside is
+ * held back and thrown by the outermost {@code exit}, once the kernel's state is consistent again, and a thread
+ * that tries to enter after a stop was requested gets its {@code ThreadDeath} there instead.
+ *
+ * A stop only applies to the work it was requested for: the guard is armed for each piece of stoppable work, a stop
+ * names the arming it is for, and disarming forgets any stop still held back.  A {@code ThreadDeath} from
+ * {@link Thread#stop()} arrives some time after the call, so disarming first waits a while for one that is on its way,
+ * to have it land there rather than in the kernel code that reports the stopped work.
+ */
+final class StopGuard
+{
+    private static final ThreadLocal<StopGuard> CURRENT = ThreadLocal.withInitial(StopGuard::new);
+
+    // Thrown by the guard itself, as opposed to the plain ThreadDeath that Thread.stop delivers
+    private static final class HeldStop extends ThreadDeath
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // Guarded by this
+    private int depth;
+    private boolean stopping;
+    private boolean armed;
+    private int turn;
+    // Thread.stop was called and its ThreadDeath has not been seen yet
+    private boolean issued;
+
+    private StopGuard()
+    {
+    }
+
+    /**
+     * The calling thread's guard.
+     */
+    static StopGuard current()
+    {
+        return CURRENT.get();
+    }
+
+    static void enter()
+    {
+        CURRENT.get().enterGuarded();
+    }
+
+    static void exit()
+    {
+        CURRENT.get().exitGuarded();
+    }
+
+    private synchronized void enterGuarded()
+    {
+        if (stopping)
+        {
+            throw new HeldStop();
+        }
+        depth++;
+    }
+
+    private synchronized void exitGuarded()
+    {
+        depth--;
+        if (depth == 0 && stopping)
+        {
+            throw new HeldStop();
+        }
+    }
+
+    /**
+     * Allow stops of the work the thread is about to do.  Returns the turn a stop must name.
+     */
+    synchronized int arm()
+    {
+        armed = true;
+        stopping = false;
+        return ++turn;
+    }
+
+    /**
+     * Note a {@code ThreadDeath} the thread's work ended with, which may be the one {@link Thread#stop()} sent.
+     */
+    synchronized void received(ThreadDeath death)
+    {
+        if (death.getClass() == ThreadDeath.class)
+        {
+            issued = false;
+        }
+    }
+
+    /**
+     * Refuse stops from now on and forget one held back, because the work it was meant for has finished.  Called
+     * by the guarded thread, which waits up to {@code waitMillis} for a stop already sent to it.  Returns the
+     * {@code ThreadDeath} that landed while waiting, if any.
+     */
+    ThreadDeath disarm(long waitMillis)
+    {
+        ThreadDeath landed = null;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        while (true)
+        {
+            try
+            {
+                if (tryDisarm(System.nanoTime() - deadline >= 0))
+                {
+                    break;
+                }
+                Thread.yield();
+            }
+            catch (ThreadDeath ex)
+            {
+                landed = ex;
+                received(ex);
+            }
+        }
+        // Thread.stop also interrupts, which happened before tryDisarm could take the monitor
+        Thread.interrupted();
+        return landed;
+    }
+
+    private synchronized boolean tryDisarm(boolean force)
+    {
+        if (issued && !force)
+        {
+            return false;
+        }
+        armed = false;
+        stopping = false;
+        issued = false;
+        return true;
+    }
+
+    /**
+     * Stop {@code thread}, whose guard this is, now if it is outside guarded code and otherwise as it leaves.  Does
+     * nothing unless the guard is still armed for the given turn.
+     */
+    @SuppressWarnings("deprecation")
+    synchronized void stop(Thread thread, int turn)
+    {
+        if (!armed || turn != this.turn)
+        {
+            return;
+        }
+        stopping = true;
+        if (depth == 0)
+        {
+            issued = true;
+            thread.stop();
+        }
+    }
+
+    /**
+     * Start afresh for a new request on a pooled thread, which a stop may have left inside guarded code.
+     */
+    synchronized void reset()
+    {
+        depth = 0;
+        stopping = false;
+        armed = false;
+        issued = false;
+    }
+}
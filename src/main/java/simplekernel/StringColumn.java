@@ -0,0 +1,178 @@
+package simplekernel;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Strings stored as int codes into a dictionary of the distinct values, so a few thousand distinct strings over
+ * millions of rows cost four bytes a row off the heap.  Tests and grouping look at each distinct string once and
+ * then work on the codes.  Code 0 is null, which is also what a freshly allocated column holds.
+ */
+public class StringColumn extends Column
+{
+    static final int WIDTH = Integer.BYTES;
+
+    // Shared by columns filtered from one another, which only ever add to it and may be set from different threads
+    static final class Dictionary
+    {
+        // Guarded by this
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        Dictionary()
+        {
+            values.add(null);
+        }
+
+        synchronized int code(String value)
+        {
+            if (value == null)
+            {
+                return 0;
+            }
+            Integer code = codes.get(value);
+            if (code == null)
+            {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        synchronized String value(int code)
+        {
+            return values.get(code);
+        }
+
+        synchronized int size()
+        {
+            return values.size();
+        }
+
+        synchronized String[] values()
+        {
+            return values.toArray(new String[0]);
+        }
+    }
+
+    private final IntBuffer codes;
+    final Dictionary dictionary;
+
+    StringColumn(ByteBuffer data, int length, Dictionary dictionary)
+    {
+        super(data, length);
+        this.codes = data.asIntBuffer();
+        this.dictionary = dictionary;
+    }
+
+    public static StringColumn allocate(int length)
+    {
+        return new StringColumn(allocate(length, WIDTH), length, new Dictionary());
+    }
+
+    public static StringColumn of(String[] values)
+    {
+        StringColumn column = allocate(values.length);
+        for (int i = 0; i < values.length; i++)
+        {
+            column.set(i, values[i]);
+        }
+        return column;
+    }
+
+    @Override
+    public String getType()
+    {
+        return "string";
+    }
+
+    public String get(int row)
+    {
+        return dictionary.value(codes.get(row));
+    }
+
+    public void set(int row, String value)
+    {
+        codes.put(row, dictionary.code(value));
+    }
+
+    public int getCode(int row)
+    {
+        return codes.get(row);
+    }
+
+    /**
+     * The number of distinct strings seen, not counting null.
+     */
+    public int getDistinct()
+    {
+        return dictionary.size() - 1;
+    }
+
+    /**
+     * The rows whose string passes the test, which is called once per distinct string.
+     */
+    public BitSet where(Predicate<String> test)
+    {
+        // Codes set while the test runs are past the end of the snapshot and fail it
+        String[] values = dictionary.values();
+        boolean[] passes = new boolean[values.length];
+        for (int code = 0; code < values.length; code++)
+        {
+            passes[code] = test.test(values[code]);
+        }
+        BitSet rows = new BitSet(length);
+        for (int i = 0; i < length; i++)
+        {
+            int code = codes.get(i);
+            if (code < passes.length && passes[code])
+            {
+                rows.set(i);
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public StringColumn filter(BitSet rows)
+    {
+        int count = count(rows, length);
+        StringColumn result = new StringColumn(allocate(count, WIDTH), count, dictionary);
+        int out = 0;
+        for (int i = rows.nextSetBit(0); i >= 0 && i < length; i = rows.nextSetBit(i + 1))
+        {
+            result.codes.put(out++, codes.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    String format(int row)
+    {
+        return String.valueOf(get(row));
+    }
+
+    @Override
+    void writeValue(JsonGenerator gen, int row) throws IOException
+    {
+        String value = get(row);
+        if (value == null)
+        {
+            gen.writeNull();
+        }
+        else
+        {
+            gen.writeString(value);
+        }
+    }
+}
@@ -1,9 +1,9 @@
+package simplekernel;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zeromq.ZMQ;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -11,80 +11,82 @@ import java.io.Reader;
 import java.net.URI;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Objects;
-import java.util.TimeZone;
 
 public class Utils
 {
 
     private static final Logger LOG = LoggerFactory.getLogger(Message.class);
+    // How long unsent messages may hold up closing the kernel's context
+    private static final int LINGER_MILLIS = 1000;
 
     public static String isoDate(Date date)
     {
-        DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.S'Z'");
-        df.setTimeZone(TimeZone.getTimeZone("UTC"));
-        return df.format(date);
+        return HeaderFactory.timestamp(date.toInstant());
     }
 
     public static String isoDateNow()
     {
-        return isoDate(new Date());
+        return HeaderFactory.now();
     }
 
-    public static byte[] sign(byte[] key,
-                              byte[] header,
-                              byte[] parent,
-                              byte[] meta,
-                              byte[] content) throws Exception
+    public static ZMQ.Socket createPolledSocket(ZMQ.Context context, ZMQ.Poller poller, int type, String host, int port)
     {
-        byte[][] data = {header, parent, meta, content};
-        SecretKeySpec keySpec = new SecretKeySpec(key, "HmacSHA256");
-        Mac mac = Mac.getInstance("HmacSHA256");
-        mac.init(keySpec);
-        for (int i = 0; i < 4; i++)
-        {
-            mac.update(data[i]);
-        }
-        return mac.doFinal();
+        return createPolledSocket(context, poller, type, "tcp", host, port);
     }
 
-    // https://codahale.com/a-lesson-in-timing-attacks/
-    public static boolean digestEqual(byte digesta[], byte digestb[])
+    public static ZMQ.Socket createPolledSocket(ZMQ.Context context, ZMQ.Poller poller, int type, String transport,
+                                                String host, int port)
     {
-        if (digesta.length != digestb.length)
-            return false;
+        ZMQ.Socket socket = createSocket(context, type, transport, host, port, -1);
+        poller.register(socket, ZMQ.Poller.POLLIN);
+        return socket;
+    }
 
-        for (int i = 0; i < digesta.length; i++)
-        {
-            if (digesta[i] != digestb[i])
-            {
-                return false;
-            }
-        }
-        return true;
+    public static ZMQ.Socket createSocket(ZMQ.Context context, int type, String host, int port)
+    {
+        return createSocket(context, type, "tcp", host, port, -1);
     }
 
-    public static ZMQ.Socket createPolledSocket(ZMQ.Context context, ZMQ.Poller poller, int type, String host, int port)
+    /**
+     * @param sndHwm send high-water mark, which has to be set before binding to apply; negative keeps the default
+     */
+    public static ZMQ.Socket createSocket(ZMQ.Context context, int type, String transport, String host, int port,
+                                          long sndHwm)
     {
-        ZMQ.Socket socket = createSocket(context, type, host, port);
-        poller.register(socket, ZMQ.Poller.POLLIN);
+        ZMQ.Socket socket = context.socket(type);
+        socket.setLinger(LINGER_MILLIS);
+        if (sndHwm >= 0)
+        {
+            socket.setSndHWM(sndHwm);
+        }
+        String address = endpoint(transport, host, port);
+        socket.bind(address);
+        LOG.debug("BOUND " + address);
         return socket;
     }
 
-    public static ZMQ.Socket createSocket(ZMQ.Context context, int type, String host, int port)
+    /**
+     * The address of one of a kernel's channels.  As in Jupyter's connection files, {@code ipc} and {@code inproc}
+     * addresses are the ip followed by a dash and the port, since neither has ports of its own.  Only clients in
+     * the same JVM and, for {@code inproc}, the same ZeroMQ context can reach {@code inproc} sockets; jeromq
+     * emulates {@code ipc} over loopback TCP.
+     */
+    public static String endpoint(String transport, String host, int port)
     {
         String hostProto = (host == null) ? "127.0.0.1" : host;
-        ZMQ.Socket socket = context.socket(type);
-        // For jeromq, we are stuck with tcp...
-        hostProto = "tcp://" + hostProto + ":" + port;
-        socket.bind(hostProto);
-        LOG.debug("BOUND " + hostProto);
-        return socket;
+        String scheme = (transport == null) ? "tcp" : transport;
+        switch (scheme)
+        {
+            case "tcp":
+                return "tcp://" + hostProto + ":" + port;
+            case "ipc":
+            case "inproc":
+                return scheme + "://" + hostProto + "-" + port;
+            default:
+                throw new IllegalArgumentException("Unsupported transport " + transport);
+        }
     }
 
     public static URL getURL(Object resource, Class<?> loadFromClass) throws IOException
@@ -113,8 +115,9 @@ public class Utils
                 return new URL(String.format("file:%s", file.getAbsolutePath()));
             }
 
-            final URL url =
-                    loadFromClass != null ? loadFromClass.getResource(value) : ClassLoader.getSystemResource(value);
+            // Resources are looked up from the root of the class path, not relative to the class's package
+            final URL url = loadFromClass != null ? loadFromClass.getClassLoader().getResource(value)
+                    : ClassLoader.getSystemResource(value);
             if (url != null)
             {
                 return url;
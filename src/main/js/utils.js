@@ -33,4 +33,145 @@ if (!console) {
         System.out.println(str);
     };
 
+    // Binary message buffers arrive and leave as java.nio.ByteBuffers, in little-endian order like typed arrays.
+    // Where Nashorn can put an ArrayBuffer over a direct ByteBuffer (Java 9 and later) the typed array shares its
+    // memory; otherwise the values are copied once, still without any text encoding.
+    var ByteBuffer = Java.type('java.nio.ByteBuffer');
+    var ByteOrder = Java.type('java.nio.ByteOrder');
+    var WRAPS_BYTE_BUFFERS = (function () {
+        try {
+            return new ArrayBuffer(ByteBuffer.allocateDirect(8)).byteLength === 8;
+        } catch (e) {
+            return false;
+        }
+    }());
+    // Absolute get and put for each element type, named with their signatures so Nashorn picks the right overload
+    var ACCESSORS = (function () {
+        var types = {
+            Int8Array: ['', 'byte'], Uint8Array: ['', 'byte'], Int16Array: ['Short', 'short'],
+            Uint16Array: ['Short', 'short'], Int32Array: ['Int', 'int'], Uint32Array: ['Int', 'int'],
+            Float32Array: ['Float', 'float'], Float64Array: ['Double', 'double']
+        };
+        var accessors = {};
+        Object.keys(types).forEach(function (name) {
+            var t = types[name];
+            accessors[name] = ['get' + t[0] + '(int)', 'put' + t[0] + '(int,' + t[1] + ')'];
+        });
+        return accessors;
+    }());
+
+    utils.typedArray = function (buffer, Type) {
+        Type = Type || Uint8Array;
+        var bytes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (WRAPS_BYTE_BUFFERS) {
+            if (!bytes.isDirect()) {
+                bytes = ByteBuffer.allocateDirect(bytes.remaining()).order(ByteOrder.LITTLE_ENDIAN).put(bytes);
+                bytes.flip();
+            }
+            return new Type(new ArrayBuffer(bytes));
+        }
+        var size = Type.BYTES_PER_ELEMENT;
+        var array = new Type(Math.floor(bytes.remaining() / size));
+        var get = ACCESSORS[Type.name][0];
+        // Typed arrays wrap the signed values Java returns into their own range
+        for (var i = 0; i < array.length; i++) {
+            array[i] = bytes[get](i * size);
+        }
+        return array;
+    };
+
+    utils.byteBuffer = function (array) {
+        var size = array.constructor.BYTES_PER_ELEMENT;
+        var bytes = ByteBuffer.allocateDirect(array.length * size).order(ByteOrder.LITTLE_ENDIAN);
+        var put = ACCESSORS[array.constructor.name][1];
+        for (var i = 0; i < array.length; i++) {
+            bytes[put](i * size, array[i]);
+        }
+        return bytes;
+    };
+
+    // Comms, as in ipykernel: utils.comm.open(target, data) starts one to a frontend target, and
+    // utils.comm.registerTarget(name, function (comm, msg) {...}) accepts those the frontend opens.  Data goes as
+    // JSON and buffers as typed arrays or ByteBuffers.  comm.send keeps only the latest data until the kernel's next
+    // tick (kernel.commFlushMillis), so it can be called as often as the data changes.
+    function toBuffers(buffers) {
+        return Java.to((buffers || []).map(function (buffer) {
+            return buffer instanceof ByteBuffer ? buffer : utils.byteBuffer(buffer);
+        }), 'java.util.List');
+    }
+
+    function toMessage(content, buffers) {
+        return { content: JSON.parse(content), buffers: Java.from(buffers) };
+    }
+
+    function toJson(value) {
+        return JSON.stringify(value === undefined ? {} : value);
+    }
+
+    function wrapComm(comm) {
+        return {
+            commId: comm.commId,
+            targetName: comm.targetName,
+            send: function (data, buffers) {
+                comm.send(toJson(data), toBuffers(buffers));
+            },
+            close: function (data) {
+                comm.close(toJson(data));
+            },
+            onMsg: function (callback) {
+                comm.onMsg(function (content, buffers) {
+                    callback(toMessage(content, buffers));
+                });
+            },
+            onClose: function (callback) {
+                comm.onClose(function (content, buffers) {
+                    callback(toMessage(content, buffers));
+                });
+            }
+        };
+    }
+
+    utils.comm = {
+        open: function (targetName, data, metadata, buffers) {
+            return wrapComm(__comms.open(targetName, toJson(data), toJson(metadata), toBuffers(buffers)));
+        },
+        registerTarget: function (targetName, callback) {
+            __comms.registerTarget(targetName, function (comm, content, buffers) {
+                callback(wrapComm(comm), toMessage(content, buffers));
+            });
+        },
+        unregisterTarget: function (targetName) {
+            __comms.unregisterTarget(targetName);
+        }
+    };
+
+    // Data-parallel helpers on a fork-join pool (kernel.parallelism threads).  Sources are arrays, Java collections,
+    // numeric columns or utils.parallel.range(from, to).  Script functions run in separate worker globals, so they
+    // must only use their arguments and the extensions, not variables from the cell; pass what they need as the
+    // extra argument, and only read shared objects.  Their output still goes to the cell.  reduce folds chunks
+    // separately and combines the results, so its function must be associative; the initial value is used once.
+    //
+    //   utils.parallel.map(utils.parallel.range(0, 100), function (i) { return i * i; });
+    //   utils.parallel.reduce([1, 2, 3], function (a, b) { return a + b; }, 0);
+    function toSource(source) {
+        return Array.isArray(source) ? Java.to(source, 'java.lang.Object[]') : source;
+    }
+
+    var Parallel = Java.type('simplekernel.Parallel');
+
+    utils.parallel = {
+        range: function (from, to) {
+            return Parallel.range(from, to);
+        },
+        map: function (source, fn, arg) {
+            return Java.from(__parallel.map(toSource(source), fn, arg));
+        },
+        forEach: function (source, fn, arg) {
+            __parallel.forEach(toSource(source), fn, arg);
+        },
+        reduce: function (source, fn, initial) {
+            return __parallel.reduce(toSource(source), fn, initial);
+        }
+    };
+
 }());